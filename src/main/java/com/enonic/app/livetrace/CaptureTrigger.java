@@ -0,0 +1,119 @@
+package com.enonic.app.livetrace;
+
+/**
+ * Rules that start a capture when the requests handled by the node look abnormal.
+ * <p>
+ * Requests are counted in one-second buckets covering the window of the rules, from the request meters sampled every second. A rule
+ * fires when, over the whole window, the average request duration, the average number of requests per second or the share of 5xx
+ * responses is above its threshold. Latency and error rules need a minimum number of requests in the window, so a few slow requests on
+ * an idle node do not fire them.
+ */
+final class CaptureTrigger
+{
+    private static final long MIN_REQUESTS = 20;
+
+    private final long latencyMicros;
+
+    private final long requestRate;
+
+    private final double errorRatio;
+
+    private final int windowSeconds;
+
+    private final Bucket[] buckets;
+
+    CaptureTrigger( final long latencyMillis, final long requestRate, final double errorRatio, final int windowSeconds )
+    {
+        this.latencyMicros = latencyMillis * 1000;
+        this.requestRate = requestRate;
+        this.errorRatio = errorRatio;
+        this.windowSeconds = windowSeconds;
+        this.buckets = new Bucket[windowSeconds + 1];
+        for ( int i = 0; i < buckets.length; i++ )
+        {
+            buckets[i] = new Bucket();
+        }
+    }
+
+    public boolean hasRules()
+    {
+        return latencyMicros > 0 || requestRate > 0 || errorRatio > 0;
+    }
+
+    public void record( final long epochSecond, final long requests, final long errors, final long totalMicros )
+    {
+        final Bucket bucket = buckets[(int) ( epochSecond % buckets.length )];
+        synchronized ( bucket )
+        {
+            if ( bucket.second != epochSecond )
+            {
+                bucket.reset( epochSecond );
+            }
+            bucket.requests += requests;
+            bucket.errors += errors;
+            bucket.totalMicros += totalMicros;
+        }
+    }
+
+    /**
+     * Checks the rules against the requests of the last complete window.
+     *
+     * @return a description of the rule that fired, or null
+     */
+    public String evaluate( final long epochSecond )
+    {
+        long requests = 0;
+        long errors = 0;
+        long totalMicros = 0;
+        for ( Bucket bucket : buckets )
+        {
+            synchronized ( bucket )
+            {
+                if ( bucket.second < epochSecond && bucket.second >= epochSecond - windowSeconds )
+                {
+                    requests += bucket.requests;
+                    errors += bucket.errors;
+                    totalMicros += bucket.totalMicros;
+                }
+            }
+        }
+
+        if ( requestRate > 0 && requests / windowSeconds > requestRate )
+        {
+            return "request rate " + requests / windowSeconds + " req/s > " + requestRate + " req/s";
+        }
+        if ( requests < MIN_REQUESTS )
+        {
+            return null;
+        }
+        if ( errorRatio > 0 && (double) errors / requests > errorRatio )
+        {
+            return "5xx ratio " + Math.round( 100.0 * errors / requests ) + "% > " + Math.round( errorRatio * 100 ) + "%";
+        }
+        final long averageMicros = totalMicros / requests;
+        if ( latencyMicros > 0 && averageMicros > latencyMicros )
+        {
+            return "average latency " + averageMicros / 1000 + " ms > " + latencyMicros / 1000 + " ms";
+        }
+        return null;
+    }
+
+    private static final class Bucket
+    {
+        private long second = -1;
+
+        private long requests;
+
+        private long errors;
+
+        private long totalMicros;
+
+        void reset( final long second )
+        {
+            this.second = second;
+            this.requests = 0;
+            this.errors = 0;
+            this.totalMicros = 0;
+        }
+    }
+}
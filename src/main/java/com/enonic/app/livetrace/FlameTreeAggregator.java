@@ -0,0 +1,115 @@
+package com.enonic.app.livetrace;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.enonic.xp.script.serializer.MapGenerator;
+import com.enonic.xp.trace.Trace;
+
+/**
+ * Merges the trace trees of a tracing session into a single call tree, where nodes are identified by the path of span names from the
+ * root. Time and call counts of the requests are summed per path, so the size of the tree depends on the number of distinct paths
+ * and not on the number of requests.
+ */
+final class FlameTreeAggregator
+{
+    private static final int MAX_NODES = 5000;
+
+    private static final String OTHER_NAME = "(other)";
+
+    private final FlameNode root;
+
+    private int nodeCount;
+
+    FlameTreeAggregator()
+    {
+        this.root = new FlameNode( "all" );
+    }
+
+    public synchronized void record( final TraceNode tree )
+    {
+        root.count++;
+        root.totalMicros += tree.getTrace().getDuration().toNanos() / 1000;
+        add( root, tree );
+    }
+
+    private void add( final FlameNode parent, final TraceNode traceNode )
+    {
+        final Trace trace = traceNode.getTrace();
+        final FlameNode node = child( parent, trace.getName() );
+        node.count++;
+        node.selfMicros += traceNode.getSelfMicros();
+        node.totalMicros += trace.getDuration().toNanos() / 1000;
+        for ( TraceNode child : traceNode.getChildren() )
+        {
+            add( node, child );
+        }
+    }
+
+    private FlameNode child( final FlameNode parent, final String name )
+    {
+        FlameNode node = parent.children.get( name );
+        if ( node == null )
+        {
+            final String nodeName = nodeCount >= MAX_NODES ? OTHER_NAME : name;
+            node = parent.children.get( nodeName );
+            if ( node == null )
+            {
+                node = new FlameNode( nodeName );
+                parent.children.put( nodeName, node );
+                nodeCount++;
+            }
+        }
+        return node;
+    }
+
+    public synchronized void serialize( final MapGenerator gen )
+    {
+        gen.map( "flame" );
+        serialize( gen, root );
+        gen.end();
+    }
+
+    private void serialize( final MapGenerator gen, final FlameNode node )
+    {
+        gen.value( "name", node.name );
+        gen.value( "count", node.count );
+        gen.value( "selfTime", node.selfMicros / 1000.0 );
+        gen.value( "totalTime", node.totalMicros / 1000.0 );
+        if ( !node.children.isEmpty() )
+        {
+            final List<FlameNode> sorted = new ArrayList<>( node.children.values() );
+            sorted.sort( Comparator.comparingLong( ( FlameNode n ) -> n.totalMicros ).reversed() );
+            gen.array( "children" );
+            for ( FlameNode child : sorted )
+            {
+                gen.map();
+                serialize( gen, child );
+                gen.end();
+            }
+            gen.end();
+        }
+    }
+
+    private static final class FlameNode
+    {
+        private final String name;
+
+        private final Map<String, FlameNode> children;
+
+        private long count;
+
+        private long selfMicros;
+
+        private long totalMicros;
+
+        FlameNode( final String name )
+        {
+            this.name = name;
+            this.children = new LinkedHashMap<>();
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package com.enonic.app.livetrace;
+
+import com.enonic.xp.script.serializer.MapGenerator;
+import com.enonic.xp.script.serializer.MapSerializable;
+
+final class GovernorMapper
+    implements MapSerializable
+{
+    private final OverheadGovernor governor;
+
+    GovernorMapper( final OverheadGovernor governor )
+    {
+        this.governor = governor;
+    }
+
+    @Override
+    public void serialize( final MapGenerator gen )
+    {
+        gen.map( "governor" );
+        gen.value( "samplingRatio", governor.getSamplingRatio() );
+        gen.value( "paused", governor.isPaused() );
+        gen.value( "reason", governor.getReason() );
+        gen.end();
+    }
+}
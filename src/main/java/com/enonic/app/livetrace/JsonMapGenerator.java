@@ -0,0 +1,230 @@
+package com.enonic.app.livetrace;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import com.enonic.xp.script.serializer.MapGenerator;
+import com.enonic.xp.script.serializer.MapSerializable;
+
+/**
+ * Writes the output of a {@link com.enonic.xp.script.serializer.MapSerializable} directly as JSON, without building the map in memory.
+ * <p>
+ * The generator starts with an open object, so it can be passed to {@code serialize} as is; {@link #close()} ends it.
+ */
+final class JsonMapGenerator
+    implements MapGenerator
+{
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private final JsonGenerator json;
+
+    private final Deque<Boolean> arrays;
+
+    JsonMapGenerator( final JsonGenerator json )
+    {
+        this.json = json;
+        this.arrays = new ArrayDeque<>();
+        try
+        {
+            json.writeStartObject();
+        }
+        catch ( IOException e )
+        {
+            throw new UncheckedIOException( e );
+        }
+        arrays.push( false );
+    }
+
+    @Override
+    public MapGenerator map()
+    {
+        try
+        {
+            json.writeStartObject();
+        }
+        catch ( IOException e )
+        {
+            throw new UncheckedIOException( e );
+        }
+        arrays.push( false );
+        return this;
+    }
+
+    @Override
+    public MapGenerator map( final String key )
+    {
+        try
+        {
+            json.writeFieldName( key );
+        }
+        catch ( IOException e )
+        {
+            throw new UncheckedIOException( e );
+        }
+        return map();
+    }
+
+    @Override
+    public MapGenerator array()
+    {
+        try
+        {
+            json.writeStartArray();
+        }
+        catch ( IOException e )
+        {
+            throw new UncheckedIOException( e );
+        }
+        arrays.push( true );
+        return this;
+    }
+
+    @Override
+    public MapGenerator array( final String key )
+    {
+        try
+        {
+            json.writeFieldName( key );
+        }
+        catch ( IOException e )
+        {
+            throw new UncheckedIOException( e );
+        }
+        return array();
+    }
+
+    @Override
+    public MapGenerator end()
+    {
+        try
+        {
+            if ( arrays.pop() )
+            {
+                json.writeEndArray();
+            }
+            else
+            {
+                json.writeEndObject();
+            }
+        }
+        catch ( IOException e )
+        {
+            throw new UncheckedIOException( e );
+        }
+        return this;
+    }
+
+    @Override
+    public MapGenerator value( final Object value )
+    {
+        try
+        {
+            writeValue( value );
+        }
+        catch ( IOException e )
+        {
+            throw new UncheckedIOException( e );
+        }
+        return this;
+    }
+
+    @Override
+    public MapGenerator value( final String key, final Object value )
+    {
+        try
+        {
+            json.writeFieldName( key );
+            writeValue( value );
+        }
+        catch ( IOException e )
+        {
+            throw new UncheckedIOException( e );
+        }
+        return this;
+    }
+
+    @Override
+    public MapGenerator rawValue( final Object value )
+    {
+        return value( value );
+    }
+
+    @Override
+    public MapGenerator rawValue( final String key, final Object value )
+    {
+        return value( key, value );
+    }
+
+    /**
+     * Serializes a value to a JSON string, e.g. for a WebSocket message.
+     */
+    static String toJson( final MapSerializable value )
+    {
+        final StringWriter out = new StringWriter();
+        try
+        {
+            final JsonMapGenerator gen = new JsonMapGenerator( JSON_FACTORY.createGenerator( out ) );
+            value.serialize( gen );
+            gen.close();
+        }
+        catch ( IOException e )
+        {
+            throw new UncheckedIOException( e );
+        }
+        return out.toString();
+    }
+
+    /**
+     * Ends the object opened by the constructor and flushes the output.
+     */
+    public void close()
+        throws IOException
+    {
+        while ( !arrays.isEmpty() )
+        {
+            end();
+        }
+        json.flush();
+    }
+
+    private void writeValue( final Object value )
+        throws IOException
+    {
+        if ( value == null )
+        {
+            json.writeNull();
+        }
+        else if ( value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte )
+        {
+            json.writeNumber( ( (Number) value ).longValue() );
+        }
+        else if ( value instanceof Double || value instanceof Float )
+        {
+            json.writeNumber( ( (Number) value ).doubleValue() );
+        }
+        else if ( value instanceof BigDecimal )
+        {
+            json.writeNumber( (BigDecimal) value );
+        }
+        else if ( value instanceof BigInteger )
+        {
+            json.writeNumber( (BigInteger) value );
+        }
+        else if ( value instanceof Boolean )
+        {
+            json.writeBoolean( (Boolean) value );
+        }
+        else
+        {
+            json.writeString( value.toString() );
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.enonic.app.livetrace;
+
+/**
+ * Log-linear histogram of durations in microseconds, with 8 sub-buckets per power of two. Percentiles are accurate to about 12%.
+ */
+final class LatencyHistogram
+{
+    private static final int SUB_BUCKET_BITS = 3;
+
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private final long[] counts;
+
+    private long total;
+
+    LatencyHistogram()
+    {
+        this.counts = new long[( 64 - SUB_BUCKET_BITS + 1 ) * SUB_BUCKETS];
+    }
+
+    public synchronized void record( final long micros )
+    {
+        counts[bucketIndex( Math.max( 0, micros ) )]++;
+        total++;
+    }
+
+    public synchronized long percentile( final double percentile )
+    {
+        if ( total == 0 )
+        {
+            return 0;
+        }
+        final long rank = (long) Math.ceil( total * percentile / 100 );
+        long seen = 0;
+        for ( int i = 0; i < counts.length; i++ )
+        {
+            seen += counts[i];
+            if ( seen >= rank )
+            {
+                return bucketUpperBound( i );
+            }
+        }
+        return bucketUpperBound( counts.length - 1 );
+    }
+
+    private static int bucketIndex( final long value )
+    {
+        if ( value < SUB_BUCKETS )
+        {
+            return (int) value;
+        }
+        final int exponent = 63 - Long.numberOfLeadingZeros( value ) - SUB_BUCKET_BITS;
+        final int subBucket = (int) ( value >>> exponent ) - SUB_BUCKETS;
+        return ( exponent + 1 ) * SUB_BUCKETS + subBucket;
+    }
+
+    private static long bucketUpperBound( final int index )
+    {
+        if ( index < SUB_BUCKETS )
+        {
+            return index;
+        }
+        final int exponent = index / SUB_BUCKETS - 1;
+        final long subBucket = index % SUB_BUCKETS + SUB_BUCKETS;
+        return ( ( subBucket + 1 ) << exponent ) - 1;
+    }
+}
@@ -3,4 +3,48 @@ package com.enonic.app.livetrace;
 public @interface LiveTraceConfig
 {
     String maxTracingTime() default "30";
+
+    String maxTracingMemory() default "64";
+
+    String offHeapStorage() default "false";
+
+    String overheadBudget() default "1";
+
+    String heapPauseThreshold() default "90";
+
+    String cpuLoadThreshold() default "90";
+
+    String repeatThreshold() default "5";
+
+    String lockContention() default "false";
+
+    String triggerLatency() default "";
+
+    String triggerRequestRate() default "";
+
+    String triggerErrorRatio() default "";
+
+    String triggerWindow() default "30";
+
+    String triggerCaptureTime() default "60";
+
+    String triggerCooldown() default "30";
+
+    String triggerDailyLimit() default "4";
+
+    String triggerStorage() default "";
+
+    String triggerMaxFiles() default "20";
+
+    String otlpEndpoint() default "";
+
+    String otlpServiceName() default "enonic-xp";
+
+    String otlpQueueSize() default "4096";
+
+    String otlpBatchSize() default "512";
+
+    String otlpBatchTimeout() default "5";
+
+    String otlpMaxRetries() default "5";
 }
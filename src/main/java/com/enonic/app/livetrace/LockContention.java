@@ -0,0 +1,113 @@
+package com.enonic.app.livetrace;
+
+import java.util.List;
+
+import com.enonic.xp.script.serializer.MapGenerator;
+
+/**
+ * Time a request thread spent blocked on monitors or waiting, between the start and the end of the request, and the locks it was seen
+ * blocked on.
+ */
+final class LockContention
+{
+    private final long blockedCount;
+
+    private final long blockedMillis;
+
+    private final long waitedCount;
+
+    private final long waitedMillis;
+
+    private final List<LockSample> locks;
+
+    LockContention( final long blockedCount, final long blockedMillis, final long waitedCount, final long waitedMillis,
+                    final List<LockSample> locks )
+    {
+        this.blockedCount = blockedCount;
+        this.blockedMillis = blockedMillis;
+        this.waitedCount = waitedCount;
+        this.waitedMillis = waitedMillis;
+        this.locks = locks;
+    }
+
+    public long getBlockedCount()
+    {
+        return blockedCount;
+    }
+
+    public long getBlockedMillis()
+    {
+        return blockedMillis;
+    }
+
+    public long getWaitedCount()
+    {
+        return waitedCount;
+    }
+
+    public long getWaitedMillis()
+    {
+        return waitedMillis;
+    }
+
+    public List<LockSample> getLocks()
+    {
+        return locks;
+    }
+
+    public boolean isEmpty()
+    {
+        return blockedCount == 0 && waitedCount == 0 && locks.isEmpty();
+    }
+
+    void serialize( final MapGenerator gen )
+    {
+        gen.map( "contention" );
+        gen.value( "blockedCount", blockedCount );
+        gen.value( "blockedTime", blockedMillis );
+        gen.value( "waitedCount", waitedCount );
+        gen.value( "waitedTime", waitedMillis );
+        gen.array( "locks" );
+        for ( LockSample lock : locks )
+        {
+            gen.map();
+            gen.value( "lock", lock.getLock() );
+            gen.value( "owner", lock.getOwner() );
+            gen.value( "samples", lock.getSamples() );
+            gen.end();
+        }
+        gen.end();
+        gen.end();
+    }
+
+    static final class LockSample
+    {
+        private final String lock;
+
+        private final String owner;
+
+        private final int samples;
+
+        LockSample( final String lock, final String owner, final int samples )
+        {
+            this.lock = lock;
+            this.owner = owner;
+            this.samples = samples;
+        }
+
+        public String getLock()
+        {
+            return lock;
+        }
+
+        public String getOwner()
+        {
+            return owner;
+        }
+
+        public int getSamples()
+        {
+            return samples;
+        }
+    }
+}
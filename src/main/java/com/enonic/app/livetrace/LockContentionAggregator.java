@@ -0,0 +1,108 @@
+package com.enonic.app.livetrace;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.stream.Collectors;
+
+/**
+ * Aggregates the locks request threads were seen blocked on during a tracing session.
+ */
+final class LockContentionAggregator
+{
+    private static final int MAX_LOCKS = 1000;
+
+    private static final int MAX_OWNERS = 5;
+
+    private final ConcurrentMap<String, LockStats> locks;
+
+    LockContentionAggregator()
+    {
+        this.locks = new ConcurrentHashMap<>();
+    }
+
+    public void record( final String path, final LockContention contention )
+    {
+        for ( LockContention.LockSample sample : contention.getLocks() )
+        {
+            if ( locks.size() >= MAX_LOCKS && !locks.containsKey( sample.getLock() ) )
+            {
+                continue;
+            }
+            locks.computeIfAbsent( sample.getLock(), LockStats::new ).add( path, sample );
+        }
+    }
+
+    public List<LockStats> mostContended( final int limit )
+    {
+        final Map<LockStats, Long> samples = new HashMap<>();
+        locks.values().forEach( stats -> samples.put( stats, stats.getSamples() ) );
+        return samples.entrySet().stream().
+            sorted( Map.Entry.<LockStats, Long>comparingByValue().reversed() ).
+            limit( limit ).
+            map( Map.Entry::getKey ).
+            collect( Collectors.toList() );
+    }
+
+    static final class LockStats
+    {
+        private final String lock;
+
+        private final Map<String, Integer> owners;
+
+        private final Map<String, Integer> paths;
+
+        private long requests;
+
+        private long samples;
+
+        LockStats( final String lock )
+        {
+            this.lock = lock;
+            this.owners = new LinkedHashMap<>();
+            this.paths = new LinkedHashMap<>();
+        }
+
+        synchronized void add( final String path, final LockContention.LockSample sample )
+        {
+            requests++;
+            samples += sample.getSamples();
+            if ( owners.size() < MAX_OWNERS || owners.containsKey( sample.getOwner() ) )
+            {
+                owners.merge( sample.getOwner(), sample.getSamples(), Integer::sum );
+            }
+            if ( paths.size() < MAX_OWNERS || paths.containsKey( path ) )
+            {
+                paths.merge( path, 1, Integer::sum );
+            }
+        }
+
+        public String getLock()
+        {
+            return lock;
+        }
+
+        public synchronized long getRequests()
+        {
+            return requests;
+        }
+
+        public synchronized long getSamples()
+        {
+            return samples;
+        }
+
+        public synchronized Map<String, Integer> getOwners()
+        {
+            return new LinkedHashMap<>( owners );
+        }
+
+        public synchronized Map<String, Integer> getPaths()
+        {
+            return new LinkedHashMap<>( paths );
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.enonic.app.livetrace;
+
+import java.util.List;
+
+import com.enonic.xp.script.serializer.MapGenerator;
+import com.enonic.xp.script.serializer.MapSerializable;
+
+final class LockContentionMapper
+    implements MapSerializable
+{
+    private final List<LockContentionAggregator.LockStats> locks;
+
+    private final long sampleIntervalMillis;
+
+    LockContentionMapper( final List<LockContentionAggregator.LockStats> locks, final long sampleIntervalMillis )
+    {
+        this.locks = locks;
+        this.sampleIntervalMillis = sampleIntervalMillis;
+    }
+
+    @Override
+    public void serialize( final MapGenerator gen )
+    {
+        gen.array( "locks" );
+        for ( LockContentionAggregator.LockStats stats : locks )
+        {
+            gen.map();
+            gen.value( "lock", stats.getLock() );
+            gen.value( "requests", stats.getRequests() );
+            gen.value( "samples", stats.getSamples() );
+            gen.value( "blockedTime", stats.getSamples() * sampleIntervalMillis );
+            gen.array( "owners" );
+            stats.getOwners().forEach( ( owner, samples ) -> gen.value( owner ) );
+            gen.end();
+            gen.array( "paths" );
+            stats.getPaths().forEach( ( path, requests ) -> gen.value( path ) );
+            gen.end();
+            gen.end();
+        }
+        gen.end();
+    }
+}
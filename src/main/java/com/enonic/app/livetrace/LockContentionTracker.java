@@ -0,0 +1,164 @@
+package com.enonic.app.livetrace;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.enonic.xp.trace.Trace;
+
+/**
+ * Measures lock contention of request threads.
+ * <p>
+ * The blocked and waited counters of the thread are read when a request starts and when it ends. While it runs, the threads of the
+ * requests in progress are sampled by {@link #sample()}, and the locks they are blocked on are recorded together with the owner thread.
+ * Thread contention monitoring is enabled in the JVM while tracking is active, so blocked and waited times are available. Requests whose
+ * end is never seen are dropped after the maximum age.
+ */
+final class LockContentionTracker
+{
+    static final long SAMPLE_INTERVAL_MILLIS = 50;
+
+    private final ThreadMXBean threadBean;
+
+    private final ConcurrentMap<String, RequestThread> requests;
+
+    private final long maxAgeNanos;
+
+    private boolean monitoringEnabled;
+
+    LockContentionTracker( final Duration maxAge )
+    {
+        this.threadBean = ManagementFactory.getThreadMXBean();
+        this.requests = new ConcurrentHashMap<>();
+        this.maxAgeNanos = maxAge.toNanos();
+    }
+
+    public synchronized void enable()
+    {
+        if ( !monitoringEnabled && threadBean.isThreadContentionMonitoringSupported() && !threadBean.isThreadContentionMonitoringEnabled() )
+        {
+            threadBean.setThreadContentionMonitoringEnabled( true );
+            monitoringEnabled = true;
+        }
+    }
+
+    public synchronized void disable()
+    {
+        requests.clear();
+        if ( monitoringEnabled )
+        {
+            threadBean.setThreadContentionMonitoringEnabled( false );
+            monitoringEnabled = false;
+        }
+    }
+
+    public void start( final Trace trace )
+    {
+        final ThreadInfo info = threadBean.getThreadInfo( Thread.currentThread().threadId() );
+        if ( info != null )
+        {
+            requests.put( trace.getId(), new RequestThread( info ) );
+        }
+    }
+
+    public LockContention end( final Trace trace )
+    {
+        final RequestThread request = requests.remove( trace.getId() );
+        if ( request == null )
+        {
+            return null;
+        }
+        final ThreadInfo info = threadBean.getThreadInfo( request.threadId );
+        if ( info == null )
+        {
+            return null;
+        }
+        return new LockContention( info.getBlockedCount() - request.blockedCount, delta( info.getBlockedTime(), request.blockedTime ),
+                                   info.getWaitedCount() - request.waitedCount, delta( info.getWaitedTime(), request.waitedTime ),
+                                   request.getLocks() );
+    }
+
+    public void sample()
+    {
+        if ( requests.isEmpty() )
+        {
+            return;
+        }
+        final long now = System.nanoTime();
+        requests.values().removeIf( request -> now - request.startNanos > maxAgeNanos );
+        final List<RequestThread> inProgress = new ArrayList<>( requests.values() );
+        final long[] threadIds = new long[inProgress.size()];
+        for ( int i = 0; i < threadIds.length; i++ )
+        {
+            threadIds[i] = inProgress.get( i ).threadId;
+        }
+
+        final ThreadInfo[] infos = threadBean.getThreadInfo( threadIds );
+        for ( int i = 0; i < infos.length; i++ )
+        {
+            final ThreadInfo info = infos[i];
+            if ( info != null && info.getThreadState() == Thread.State.BLOCKED && info.getLockName() != null )
+            {
+                inProgress.get( i ).blockedOn( info.getLockName(), Objects.toString( info.getLockOwnerName(), "" ) );
+            }
+        }
+    }
+
+    private static long delta( final long current, final long start )
+    {
+        return current < 0 || start < 0 ? -1 : current - start;
+    }
+
+    private static final class RequestThread
+    {
+        private final long threadId;
+
+        private final long blockedCount;
+
+        private final long blockedTime;
+
+        private final long waitedCount;
+
+        private final long waitedTime;
+
+        private final long startNanos;
+
+        private final Map<String, int[]> lockSamples;
+
+        private final Map<String, String> lockOwners;
+
+        RequestThread( final ThreadInfo info )
+        {
+            this.threadId = info.getThreadId();
+            this.blockedCount = info.getBlockedCount();
+            this.blockedTime = info.getBlockedTime();
+            this.waitedCount = info.getWaitedCount();
+            this.waitedTime = info.getWaitedTime();
+            this.startNanos = System.nanoTime();
+            this.lockSamples = new LinkedHashMap<>();
+            this.lockOwners = new LinkedHashMap<>();
+        }
+
+        synchronized void blockedOn( final String lock, final String owner )
+        {
+            lockSamples.computeIfAbsent( lock, k -> new int[1] )[0]++;
+            lockOwners.put( lock, owner );
+        }
+
+        synchronized List<LockContention.LockSample> getLocks()
+        {
+            final List<LockContention.LockSample> locks = new ArrayList<>( lockSamples.size() );
+            lockSamples.forEach(
+                ( lock, samples ) -> locks.add( new LockContention.LockSample( lock, lockOwners.get( lock ), samples[0] ) ) );
+            return locks;
+        }
+    }
+}
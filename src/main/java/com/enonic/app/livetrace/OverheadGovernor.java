@@ -0,0 +1,221 @@
+package com.enonic.app.livetrace;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.MemoryUsage;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the cost of tracing under an overhead budget.
+ * <p>
+ * Time spent handling trace events is accumulated by {@link #recordEventCost(long)} and time spent assembling trees by
+ * {@link #recordTreeCost(long)}, each with its own average cost. On every {@link #update()} the total cost in the last window is turned
+ * into a fraction of the CPU capacity of the node, and the ratio of sampled requests is adjusted to stay under the budget. The sampling
+ * decision is drawn once per request, when its root starts. Capture is paused while heap usage is above the memory threshold.
+ */
+final class OverheadGovernor
+{
+    private static final double MIN_SAMPLING_RATIO = 0.01;
+
+    private static final double EWMA_ALPHA = 0.3;
+
+    private static final double HEAP_RESUME_MARGIN = 0.1;
+
+    private final double overheadBudget;
+
+    private final double heapPauseThreshold;
+
+    private final double cpuLoadThreshold;
+
+    private final int processors;
+
+    private final AtomicLong eventNanos;
+
+    private final AtomicLong events;
+
+    private final AtomicLong treeNanos;
+
+    private final AtomicLong trees;
+
+    private long lastUpdateNanos;
+
+    private volatile double eventCostNanos;
+
+    private volatile double treeCostNanos;
+
+    private volatile double overhead;
+
+    private volatile double processCpuLoad;
+
+    private volatile double heapUsage;
+
+    private volatile double samplingRatio;
+
+    private volatile boolean paused;
+
+    private volatile String throttleReason;
+
+    OverheadGovernor( final double overheadBudget, final double heapPauseThreshold, final double cpuLoadThreshold )
+    {
+        this.overheadBudget = overheadBudget;
+        this.heapPauseThreshold = heapPauseThreshold;
+        this.cpuLoadThreshold = cpuLoadThreshold;
+        this.processors = Runtime.getRuntime().availableProcessors();
+        this.eventNanos = new AtomicLong();
+        this.events = new AtomicLong();
+        this.treeNanos = new AtomicLong();
+        this.trees = new AtomicLong();
+        this.lastUpdateNanos = System.nanoTime();
+        this.samplingRatio = 1;
+        this.processCpuLoad = -1;
+        this.throttleReason = "";
+    }
+
+    public void recordEventCost( final long nanos )
+    {
+        eventNanos.addAndGet( nanos );
+        events.incrementAndGet();
+    }
+
+    public void recordTreeCost( final long nanos )
+    {
+        treeNanos.addAndGet( nanos );
+        trees.incrementAndGet();
+    }
+
+    public boolean sample()
+    {
+        final double ratio = samplingRatio;
+        return ratio >= 1 || ThreadLocalRandom.current().nextDouble() < ratio;
+    }
+
+    public boolean isPaused()
+    {
+        return paused;
+    }
+
+    /**
+     * Recalculates the sampling decisions from the cost recorded since the last update.
+     *
+     * @return true if the sampling ratio or the pause state changed
+     */
+    public synchronized boolean update()
+    {
+        final long now = System.nanoTime();
+        final long elapsed = Math.max( 1, now - lastUpdateNanos );
+        lastUpdateNanos = now;
+        final long eventCost = eventNanos.getAndSet( 0 );
+        final long treeCost = treeNanos.getAndSet( 0 );
+        eventCostNanos = average( eventCostNanos, eventCost, events.getAndSet( 0 ) );
+        treeCostNanos = average( treeCostNanos, treeCost, trees.getAndSet( 0 ) );
+        final long cost = eventCost + treeCost;
+        overhead = (double) cost / ( (double) elapsed * processors );
+        processCpuLoad = readProcessCpuLoad();
+        heapUsage = readHeapUsage();
+
+        final double previousRatio = samplingRatio;
+        final boolean wasPaused = paused;
+
+        if ( heapUsage >= heapPauseThreshold )
+        {
+            paused = true;
+        }
+        else if ( heapUsage < heapPauseThreshold - HEAP_RESUME_MARGIN )
+        {
+            paused = false;
+        }
+
+        double ratio = samplingRatio;
+        if ( overhead > overheadBudget )
+        {
+            ratio = ratio * overheadBudget / overhead;
+            throttleReason = "overhead";
+        }
+        else if ( processCpuLoad >= cpuLoadThreshold )
+        {
+            ratio = ratio / 2;
+            throttleReason = "cpu";
+        }
+        else if ( overhead < overheadBudget / 2 )
+        {
+            ratio = ratio * 1.5;
+        }
+        samplingRatio = Math.max( MIN_SAMPLING_RATIO, Math.min( 1, ratio ) );
+
+        return paused != wasPaused || Math.abs( samplingRatio - previousRatio ) >= 0.01;
+    }
+
+    public double getOverheadBudget()
+    {
+        return overheadBudget;
+    }
+
+    public double getEventCostNanos()
+    {
+        return eventCostNanos;
+    }
+
+    public double getTreeCostNanos()
+    {
+        return treeCostNanos;
+    }
+
+    public double getOverhead()
+    {
+        return overhead;
+    }
+
+    public double getProcessCpuLoad()
+    {
+        return processCpuLoad;
+    }
+
+    public double getHeapUsage()
+    {
+        return heapUsage;
+    }
+
+    public double getSamplingRatio()
+    {
+        return samplingRatio;
+    }
+
+    public String getReason()
+    {
+        if ( paused )
+        {
+            return "memory";
+        }
+        return samplingRatio >= 1 ? "" : throttleReason;
+    }
+
+    private static double average( final double previous, final long cost, final long count )
+    {
+        if ( count == 0 )
+        {
+            return previous;
+        }
+        final double windowCost = (double) cost / count;
+        return previous == 0 ? windowCost : EWMA_ALPHA * windowCost + ( 1 - EWMA_ALPHA ) * previous;
+    }
+
+    private static double readProcessCpuLoad()
+    {
+        final OperatingSystemMXBean bean = ManagementFactory.getOperatingSystemMXBean();
+        if ( bean instanceof com.sun.management.OperatingSystemMXBean )
+        {
+            return ( (com.sun.management.OperatingSystemMXBean) bean ).getProcessCpuLoad();
+        }
+        return -1;
+    }
+
+    private static double readHeapUsage()
+    {
+        final MemoryMXBean bean = ManagementFactory.getMemoryMXBean();
+        final MemoryUsage heap = bean.getHeapMemoryUsage();
+        final long max = heap.getMax() > 0 ? heap.getMax() : heap.getCommitted();
+        return max > 0 ? (double) heap.getUsed() / max : 0;
+    }
+}
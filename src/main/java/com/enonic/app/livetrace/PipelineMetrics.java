@@ -0,0 +1,154 @@
+package com.enonic.app.livetrace;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Meters of the Live Trace pipeline itself, registered in the global Micrometer registry.
+ * <p>
+ * The meters are created once, so recording a value on the trace event path does not allocate. They are removed from the registry
+ * when the trace handler is deactivated.
+ */
+public final class PipelineMetrics
+{
+    public static final String EVENTS_INGESTED = "livetrace.events.ingested";
+
+    public static final String EVENTS_FILTERED = "livetrace.events.filtered";
+
+    public static final String ASSEMBLY = "livetrace.assembly";
+
+    public static final String EXECUTOR_QUEUE = "livetrace.executor.queue";
+
+    public static final String SERIALIZATION = "livetrace.serialization";
+
+    public static final String SERIALIZATION_BYTES = "livetrace.serialization.bytes";
+
+    public static final String SEND = "livetrace.send";
+
+    public static final String SPANS_ORPHANED = "livetrace.spans.orphaned";
+
+    public static final String SPANS_EVICTED = "livetrace.spans.evicted";
+
+    public static final String AUTO_STOPS = "livetrace.autostops";
+
+    public static final String OVERHEAD = "livetrace.overhead";
+
+    public static final String EVENT_COST = "livetrace.event.cost";
+
+    public static final String TREE_COST = "livetrace.tree.cost";
+
+    private final Counter eventsIngested;
+
+    private final Counter eventsFiltered;
+
+    private final Timer assembly;
+
+    private final Gauge executorQueue;
+
+    private final Timer serialization;
+
+    private final Counter serializationBytes;
+
+    private final Timer send;
+
+    private final Counter spansOrphaned;
+
+    private final Counter spansEvicted;
+
+    private final Counter autoStops;
+
+    private final Gauge overhead;
+
+    private final Gauge eventCost;
+
+    private final Gauge treeCost;
+
+    PipelineMetrics( final TraceHandler traceHandler )
+    {
+        final MeterRegistry registry = Metrics.globalRegistry;
+        eventsIngested = Counter.builder( EVENTS_INGESTED ).description( "Trace events received" ).register( registry );
+        eventsFiltered = Counter.builder( EVENTS_FILTERED ).description( "Trace events not passed to a collector" ).register( registry );
+        assembly = Timer.builder( ASSEMBLY ).description( "Time to assemble and analyze a trace tree" ).register( registry );
+        executorQueue = Gauge.builder( EXECUTOR_QUEUE, traceHandler, TraceHandler::getQueueDepth ).
+            description( "Trace trees waiting to be assembled" ).
+            register( registry );
+        serialization = Timer.builder( SERIALIZATION ).description( "Time to serialize messages" ).register( registry );
+        serializationBytes = Counter.builder( SERIALIZATION_BYTES ).description( "Size of serialized messages" ).baseUnit( "bytes" ).
+            register( registry );
+        send = Timer.builder( SEND ).description( "Time to send a message to a WebSocket session" ).register( registry );
+        spansOrphaned = Counter.builder( SPANS_ORPHANED ).description( "Spans discarded because their parent never ended" ).
+            register( registry );
+        spansEvicted = Counter.builder( SPANS_EVICTED ).description( "Spans discarded to stay within the memory budget" ).
+            register( registry );
+        autoStops = Counter.builder( AUTO_STOPS ).description( "Tracing sessions stopped after the maximum time" ).register( registry );
+        overhead = Gauge.builder( OVERHEAD, traceHandler, TraceHandler::getOverhead ).
+            description( "Share of the CPU capacity spent on tracing" ).
+            register( registry );
+        eventCost = Gauge.builder( EVENT_COST, traceHandler, TraceHandler::getEventCostNanos ).
+            description( "Average time to handle a trace event" ).baseUnit( "nanoseconds" ).
+            register( registry );
+        treeCost = Gauge.builder( TREE_COST, traceHandler, TraceHandler::getTreeCostNanos ).
+            description( "Average time to assemble a trace tree" ).baseUnit( "nanoseconds" ).
+            register( registry );
+    }
+
+    void close()
+    {
+        for ( Meter meter : List.of( eventsIngested, eventsFiltered, assembly, executorQueue, serialization, serializationBytes, send,
+                                     spansOrphaned, spansEvicted, autoStops, overhead, eventCost, treeCost ) )
+        {
+            Metrics.globalRegistry.remove( meter );
+        }
+    }
+
+    void eventIngested()
+    {
+        eventsIngested.increment();
+    }
+
+    void eventFiltered()
+    {
+        eventsFiltered.increment();
+    }
+
+    void assembled( final long nanos )
+    {
+        assembly.record( nanos, TimeUnit.NANOSECONDS );
+    }
+
+    void serialized( final long nanos, final long bytes )
+    {
+        serialization.record( nanos, TimeUnit.NANOSECONDS );
+        if ( bytes > 0 )
+        {
+            serializationBytes.increment( bytes );
+        }
+    }
+
+    void sent( final long nanos )
+    {
+        send.record( nanos, TimeUnit.NANOSECONDS );
+    }
+
+    void spansOrphaned( final long count )
+    {
+        spansOrphaned.increment( count );
+    }
+
+    void spansEvicted( final long count )
+    {
+        spansEvicted.increment( count );
+    }
+
+    void autoStopped()
+    {
+        autoStops.increment();
+    }
+}
@@ -0,0 +1,194 @@
+package com.enonic.app.livetrace;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import com.enonic.xp.trace.Trace;
+
+/**
+ * Aggregates query traces by the shape of the query, i.e. the query and filter with literal values replaced by placeholders.
+ */
+final class QueryShapeAggregator
+{
+    private static final int MAX_SHAPES = 1000;
+
+    private static final int MAX_SAMPLES = 3;
+
+    private static final int MAX_SHAPE_LENGTH = 1000;
+
+    private static final String OTHER_SHAPE = "(other)";
+
+    private static final Pattern DOUBLE_QUOTED = Pattern.compile( "\"(?:[^\"\\\\]|\\\\.)*\"(\\s*:)?" );
+
+    private static final Pattern SINGLE_QUOTED_VALUE = Pattern.compile( "'(?:[^'\\\\]|\\\\.)*'" );
+
+    private static final Pattern NUMBER = Pattern.compile( "(?<![\\w.?])-?\\d+(?:\\.\\d+)?(?![\\w.])" );
+
+    private static final Pattern IN_LIST = Pattern.compile( "(?i)(\\bIN\\s*\\(\\s*)([\"']?)\\?\\2(?:\\s*,\\s*[\"']?\\?[\"']?)+" );
+
+    private static final Pattern ARRAY_LIST = Pattern.compile( "(\\[\\s*)(\"?)\\?\\2(?:\\s*,\\s*\"?\\?\"?)+" );
+
+    private static final Pattern WHITESPACE = Pattern.compile( "\\s+" );
+
+    private final ConcurrentMap<String, ShapeStats> shapes;
+
+    QueryShapeAggregator()
+    {
+        this.shapes = new ConcurrentHashMap<>();
+    }
+
+    public static boolean isQuery( final Trace trace )
+    {
+        return trace.get( "query" ) != null || trace.get( "filter" ) != null;
+    }
+
+    public void record( final Trace trace )
+    {
+        final String query = Objects.toString( trace.get( "query" ), "" );
+        final String filter = Objects.toString( trace.get( "filter" ), "" );
+        final String contentTypes = Objects.toString( trace.get( "contentTypes" ), "" );
+
+        final StringBuilder shape = new StringBuilder( trace.getName() );
+        if ( !query.isEmpty() )
+        {
+            shape.append( " query=" ).append( normalize( query ) );
+        }
+        if ( !filter.isEmpty() )
+        {
+            shape.append( " filter=" ).append( normalize( filter ) );
+        }
+        if ( !contentTypes.isEmpty() )
+        {
+            shape.append( " types=" ).append( contentTypes );
+        }
+        String key = shape.length() > MAX_SHAPE_LENGTH ? shape.substring( 0, MAX_SHAPE_LENGTH ) : shape.toString();
+        if ( shapes.size() >= MAX_SHAPES && !shapes.containsKey( key ) )
+        {
+            key = OTHER_SHAPE;
+        }
+
+        final ShapeStats stats = shapes.computeIfAbsent( key, k -> new ShapeStats( k, trace.getName() ) );
+        stats.add( trace, query, filter );
+    }
+
+    public List<ShapeStats> slowest( final int limit )
+    {
+        final Map<ShapeStats, Long> totals = new HashMap<>();
+        shapes.values().forEach( stats -> totals.put( stats, stats.getTotalMicros() ) );
+        return totals.entrySet().stream().
+            sorted( Map.Entry.<ShapeStats, Long>comparingByValue().reversed() ).
+            limit( limit ).
+            map( Map.Entry::getKey ).
+            collect( Collectors.toList() );
+    }
+
+    static String normalize( final String value )
+    {
+        String result = DOUBLE_QUOTED.matcher( value ).
+            replaceAll( m -> m.group( 1 ) == null ? "\"?\"" : Matcher.quoteReplacement( m.group() ) );
+        result = SINGLE_QUOTED_VALUE.matcher( result ).replaceAll( "'?'" );
+        result = NUMBER.matcher( result ).replaceAll( "?" );
+        result = IN_LIST.matcher( result ).replaceAll( "$1$2?$2, ..." );
+        result = ARRAY_LIST.matcher( result ).replaceAll( "$1$2?$2, ..." );
+        return WHITESPACE.matcher( result ).replaceAll( " " ).trim();
+    }
+
+    static final class ShapeStats
+    {
+        private final String shape;
+
+        private final String name;
+
+        private final LatencyHistogram histogram;
+
+        private final List<String> samples;
+
+        private long count;
+
+        private long totalMicros;
+
+        private long maxMicros;
+
+        private long hits;
+
+        ShapeStats( final String shape, final String name )
+        {
+            this.shape = shape;
+            this.name = name;
+            this.histogram = new LatencyHistogram();
+            this.samples = new ArrayList<>( MAX_SAMPLES );
+        }
+
+        synchronized void add( final Trace trace, final String query, final String filter )
+        {
+            final long micros = trace.getDuration().toNanos() / 1000;
+            count++;
+            totalMicros += micros;
+            maxMicros = Math.max( maxMicros, micros );
+            histogram.record( micros );
+
+            final Object traceHits = trace.get( "hits" );
+            if ( traceHits instanceof Number )
+            {
+                hits += ( (Number) traceHits ).longValue();
+            }
+
+            if ( samples.size() < MAX_SAMPLES )
+            {
+                final String sample = filter.isEmpty() ? query : query + " filter=" + filter;
+                if ( !samples.contains( sample ) )
+                {
+                    samples.add( sample );
+                }
+            }
+        }
+
+        public String getShape()
+        {
+            return shape;
+        }
+
+        public String getName()
+        {
+            return name;
+        }
+
+        public synchronized long getCount()
+        {
+            return count;
+        }
+
+        public synchronized long getTotalMicros()
+        {
+            return totalMicros;
+        }
+
+        public synchronized long getMaxMicros()
+        {
+            return maxMicros;
+        }
+
+        public synchronized long getHits()
+        {
+            return hits;
+        }
+
+        public long getP99Micros()
+        {
+            return histogram.percentile( 99 );
+        }
+
+        public synchronized List<String> getSamples()
+        {
+            return new ArrayList<>( samples );
+        }
+    }
+}
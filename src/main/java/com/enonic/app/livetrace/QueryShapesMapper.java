@@ -0,0 +1,42 @@
+package com.enonic.app.livetrace;
+
+import java.util.List;
+
+import com.enonic.xp.script.serializer.MapGenerator;
+import com.enonic.xp.script.serializer.MapSerializable;
+
+final class QueryShapesMapper
+    implements MapSerializable
+{
+    private final List<QueryShapeAggregator.ShapeStats> shapes;
+
+    QueryShapesMapper( final List<QueryShapeAggregator.ShapeStats> shapes )
+    {
+        this.shapes = shapes;
+    }
+
+    @Override
+    public void serialize( final MapGenerator gen )
+    {
+        gen.array( "queryShapes" );
+        for ( QueryShapeAggregator.ShapeStats stats : shapes )
+        {
+            final long count = stats.getCount();
+            final long totalMicros = stats.getTotalMicros();
+            gen.map();
+            gen.value( "shape", stats.getShape() );
+            gen.value( "name", stats.getName() );
+            gen.value( "count", count );
+            gen.value( "totalTime", totalMicros / 1000.0 );
+            gen.value( "avgTime", count == 0 ? 0 : totalMicros / 1000.0 / count );
+            gen.value( "p99", stats.getP99Micros() / 1000.0 );
+            gen.value( "maxTime", stats.getMaxMicros() / 1000.0 );
+            gen.value( "hits", stats.getHits() );
+            gen.array( "samples" );
+            stats.getSamples().forEach( gen::value );
+            gen.end();
+            gen.end();
+        }
+        gen.end();
+    }
+}
@@ -0,0 +1,122 @@
+package com.enonic.app.livetrace;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.stream.Collectors;
+
+/**
+ * Aggregates repeated calls flagged in request trees by URL path and call shape.
+ */
+final class RepeatAggregator
+{
+    private static final int MAX_ENTRIES = 1000;
+
+    private final ConcurrentMap<String, RepeatStats> repeats;
+
+    RepeatAggregator()
+    {
+        this.repeats = new ConcurrentHashMap<>();
+    }
+
+    public void record( final String path, final List<RepeatDetector.RepeatFlag> flags )
+    {
+        for ( RepeatDetector.RepeatFlag flag : flags )
+        {
+            final String key = path + '\n' + flag.getShape();
+            if ( repeats.size() >= MAX_ENTRIES && !repeats.containsKey( key ) )
+            {
+                continue;
+            }
+            repeats.computeIfAbsent( key, k -> new RepeatStats( path, flag.getName(), flag.getShape() ) ).add( flag );
+        }
+    }
+
+    public List<RepeatStats> costliest( final int limit )
+    {
+        final Map<RepeatStats, Long> avoidable = new HashMap<>();
+        repeats.values().forEach( stats -> avoidable.put( stats, stats.getAvoidableMicros() ) );
+        return avoidable.entrySet().stream().
+            sorted( Map.Entry.<RepeatStats, Long>comparingByValue().reversed() ).
+            limit( limit ).
+            map( Map.Entry::getKey ).
+            collect( Collectors.toList() );
+    }
+
+    static final class RepeatStats
+    {
+        private final String path;
+
+        private final String name;
+
+        private final String shape;
+
+        private long occurrences;
+
+        private long calls;
+
+        private long totalMicros;
+
+        private long avoidableMicros;
+
+        private boolean identical;
+
+        RepeatStats( final String path, final String name, final String shape )
+        {
+            this.path = path;
+            this.name = name;
+            this.shape = shape;
+        }
+
+        synchronized void add( final RepeatDetector.RepeatFlag flag )
+        {
+            occurrences++;
+            calls += flag.getCount();
+            totalMicros += flag.getTotalMicros();
+            avoidableMicros += flag.getAvoidableMicros();
+            identical |= flag.isIdentical();
+        }
+
+        public String getPath()
+        {
+            return path;
+        }
+
+        public String getName()
+        {
+            return name;
+        }
+
+        public String getShape()
+        {
+            return shape;
+        }
+
+        public synchronized long getOccurrences()
+        {
+            return occurrences;
+        }
+
+        public synchronized long getCalls()
+        {
+            return calls;
+        }
+
+        public synchronized long getTotalMicros()
+        {
+            return totalMicros;
+        }
+
+        public synchronized long getAvoidableMicros()
+        {
+            return avoidableMicros;
+        }
+
+        public synchronized boolean isIdentical()
+        {
+            return identical;
+        }
+    }
+}
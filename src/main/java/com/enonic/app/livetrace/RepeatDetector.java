@@ -0,0 +1,178 @@
+package com.enonic.app.livetrace;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import com.enonic.xp.trace.Trace;
+
+/**
+ * Finds calls that are repeated among the children of a trace, e.g. the same content.get or query done in a loop.
+ * <p>
+ * Only library calls (e.g. content.get, node.query) are considered. Children are grouped by their name and the shape of their data,
+ * with literal values replaced by placeholders. Groups with more calls than the threshold are flagged, as identical if all the calls
+ * had the same data, or as similar otherwise.
+ */
+final class RepeatDetector
+{
+    private static final String IGNORED_FIELD = "hits";
+
+    private static final Set<String> QUERY_FIELDS = Set.of( "query", "filter", "contentTypes" );
+
+    private final int threshold;
+
+    RepeatDetector( final int threshold )
+    {
+        this.threshold = threshold;
+    }
+
+    public List<RepeatFlag> detect( final TraceNode root )
+    {
+        final List<RepeatFlag> flags = new ArrayList<>();
+        detect( root, flags );
+        return flags;
+    }
+
+    private void detect( final TraceNode node, final List<RepeatFlag> flags )
+    {
+        final List<TraceNode> children = node.getChildren();
+        for ( TraceNode child : children )
+        {
+            detect( child, flags );
+        }
+        if ( children.size() <= threshold )
+        {
+            return;
+        }
+
+        final Map<String, List<Trace>> groups = new LinkedHashMap<>();
+        for ( TraceNode child : children )
+        {
+            final Trace sibling = child.getTrace();
+            if ( sibling.getName().indexOf( '.' ) < 0 )
+            {
+                continue;
+            }
+            groups.computeIfAbsent( fingerprint( sibling, true ), k -> new ArrayList<>() ).add( sibling );
+        }
+
+        for ( Map.Entry<String, List<Trace>> group : groups.entrySet() )
+        {
+            final List<Trace> calls = group.getValue();
+            if ( calls.size() > threshold )
+            {
+                final RepeatFlag flag = toFlag( node.getTrace().getId(), group.getKey(), calls );
+                node.addRepeat( flag );
+                flags.add( flag );
+            }
+        }
+    }
+
+    private static RepeatFlag toFlag( final String parentId, final String shape, final List<Trace> calls )
+    {
+        final Set<String> distinct = new HashSet<>();
+        long totalMicros = 0;
+        for ( Trace call : calls )
+        {
+            distinct.add( fingerprint( call, false ) );
+            totalMicros += call.getDuration().toNanos() / 1000;
+        }
+        return new RepeatFlag( parentId, calls.get( 0 ).getName(), shape, calls.size(), distinct.size() == 1, totalMicros );
+    }
+
+    private static String fingerprint( final Trace trace, final boolean shapeOnly )
+    {
+        final StringBuilder fingerprint = new StringBuilder( trace.getName() );
+        for ( Map.Entry<String, Object> entry : new TreeMap<>( trace ).entrySet() )
+        {
+            if ( IGNORED_FIELD.equals( entry.getKey() ) || entry.getValue() == null )
+            {
+                continue;
+            }
+            final String value = entry.getValue().toString();
+            fingerprint.append( ' ' ).append( entry.getKey() ).append( '=' );
+            if ( !shapeOnly )
+            {
+                fingerprint.append( value );
+            }
+            else if ( QUERY_FIELDS.contains( entry.getKey() ) )
+            {
+                fingerprint.append( QueryShapeAggregator.normalize( value ) );
+            }
+            else
+            {
+                fingerprint.append( '?' );
+            }
+        }
+        return fingerprint.toString();
+    }
+
+    static final class RepeatFlag
+    {
+        private final String parentId;
+
+        private final String name;
+
+        private final String shape;
+
+        private final int count;
+
+        private final boolean identical;
+
+        private final long totalMicros;
+
+        RepeatFlag( final String parentId, final String name, final String shape, final int count, final boolean identical,
+                    final long totalMicros )
+        {
+            this.parentId = parentId;
+            this.name = name;
+            this.shape = shape;
+            this.count = count;
+            this.identical = identical;
+            this.totalMicros = totalMicros;
+        }
+
+        public String getParentId()
+        {
+            return parentId;
+        }
+
+        public String getName()
+        {
+            return name;
+        }
+
+        public String getShape()
+        {
+            return shape;
+        }
+
+        public int getCount()
+        {
+            return count;
+        }
+
+        public boolean isIdentical()
+        {
+            return identical;
+        }
+
+        public long getTotalMicros()
+        {
+            return totalMicros;
+        }
+
+        /**
+         * Time that could be saved if the result of the first call was reused. Only known for identical calls, as similar calls return
+         * different results.
+         */
+        public long getAvoidableMicros()
+        {
+            return identical ? totalMicros - totalMicros / count : 0;
+        }
+    }
+}
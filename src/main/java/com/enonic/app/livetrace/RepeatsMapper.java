@@ -0,0 +1,37 @@
+package com.enonic.app.livetrace;
+
+import java.util.List;
+
+import com.enonic.xp.script.serializer.MapGenerator;
+import com.enonic.xp.script.serializer.MapSerializable;
+
+final class RepeatsMapper
+    implements MapSerializable
+{
+    private final List<RepeatAggregator.RepeatStats> repeats;
+
+    RepeatsMapper( final List<RepeatAggregator.RepeatStats> repeats )
+    {
+        this.repeats = repeats;
+    }
+
+    @Override
+    public void serialize( final MapGenerator gen )
+    {
+        gen.array( "repeats" );
+        for ( RepeatAggregator.RepeatStats stats : repeats )
+        {
+            gen.map();
+            gen.value( "path", stats.getPath() );
+            gen.value( "name", stats.getName() );
+            gen.value( "shape", stats.getShape() );
+            gen.value( "occurrences", stats.getOccurrences() );
+            gen.value( "calls", stats.getCalls() );
+            gen.value( "identical", stats.isIdentical() );
+            gen.value( "totalTime", stats.getTotalMicros() / 1000.0 );
+            gen.value( "avoidableTime", stats.getAvoidableMicros() / 1000.0 );
+            gen.end();
+        }
+        gen.end();
+    }
+}
@@ -0,0 +1,67 @@
+package com.enonic.app.livetrace;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Reads the HTTP request meters registered in Micrometer, which are updated whether tracing is enabled or not.
+ * <p>
+ * The Jetty server request timers, tagged by outcome, are used when registered, otherwise the request timer of the Jetty connections,
+ * which has no status, so 5xx responses are not counted. The meters are cumulative; each sample records the requests handled since the
+ * previous one.
+ */
+final class RequestMeters
+{
+    private static final String SERVER_REQUESTS_NAME = "jetty.server.requests";
+
+    private static final String REQUEST_TIMER_NAME = "jetty.connections.request.time";
+
+    private static final String SERVER_ERROR_OUTCOME = "SERVER_ERROR";
+
+    private long lastRequests = -1;
+
+    private long lastErrors;
+
+    private long lastMicros;
+
+    public synchronized void sample( final CaptureTrigger trigger, final long epochSecond )
+    {
+        long requests = 0;
+        long errors = 0;
+        long micros = 0;
+        final Collection<Timer> serverRequests = Metrics.globalRegistry.find( SERVER_REQUESTS_NAME ).timers();
+        if ( !serverRequests.isEmpty() )
+        {
+            for ( Timer timer : serverRequests )
+            {
+                requests += timer.count();
+                micros += (long) timer.totalTime( TimeUnit.MICROSECONDS );
+                if ( SERVER_ERROR_OUTCOME.equals( timer.getId().getTag( "outcome" ) ) )
+                {
+                    errors += timer.count();
+                }
+            }
+        }
+        else
+        {
+            final Timer requestTimer = Metrics.globalRegistry.find( REQUEST_TIMER_NAME ).timer();
+            if ( requestTimer == null )
+            {
+                return;
+            }
+            requests = requestTimer.count();
+            micros = (long) requestTimer.totalTime( TimeUnit.MICROSECONDS );
+        }
+
+        if ( lastRequests >= 0 && requests >= lastRequests )
+        {
+            trigger.record( epochSecond, requests - lastRequests, Math.max( 0, errors - lastErrors ), Math.max( 0, micros - lastMicros ) );
+        }
+        lastRequests = requests;
+        lastErrors = errors;
+        lastMicros = micros;
+    }
+}
@@ -0,0 +1,40 @@
+package com.enonic.app.livetrace;
+
+import java.util.Collection;
+
+import com.enonic.xp.script.serializer.MapGenerator;
+import com.enonic.xp.script.serializer.MapSerializable;
+
+/**
+ * Request rate broadcast to the open tools. Only values that change with the traffic or the sampling state are included, so an unchanged
+ * message is not sent again; the cost of the pipeline is sent with the metrics of the dashboard.
+ */
+final class RequestRateMapper
+    implements MapSerializable
+{
+    private final int requestsPerSecond;
+
+    private final Collection<TraceCollector> collectors;
+
+    private final OverheadGovernor governor;
+
+    RequestRateMapper( final int requestsPerSecond, final Collection<TraceCollector> collectors, final OverheadGovernor governor )
+    {
+        this.requestsPerSecond = requestsPerSecond;
+        this.collectors = collectors;
+        this.governor = governor;
+    }
+
+    @Override
+    public void serialize( final MapGenerator gen )
+    {
+        gen.value( "reqSec", requestsPerSecond );
+        if ( !collectors.isEmpty() )
+        {
+            gen.map( "samplingCount" );
+            new SamplingCountMapper( collectors ).serialize( gen );
+            gen.end();
+            new GovernorMapper( governor ).serialize( gen );
+        }
+    }
+}
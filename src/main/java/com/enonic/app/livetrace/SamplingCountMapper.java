@@ -0,0 +1,32 @@
+package com.enonic.app.livetrace;
+
+import java.util.Collection;
+
+import com.enonic.xp.script.serializer.MapGenerator;
+import com.enonic.xp.script.serializer.MapSerializable;
+
+final class SamplingCountMapper
+    implements MapSerializable
+{
+    private final Collection<TraceCollector> collectors;
+
+    SamplingCountMapper( final Collection<TraceCollector> collectors )
+    {
+        this.collectors = collectors;
+    }
+
+    @Override
+    public void serialize( final MapGenerator gen )
+    {
+        for ( TraceCollector collector : collectors )
+        {
+            gen.map( collector.getId() );
+            gen.value( "requests", collector.size() );
+            gen.value( "retainedRequests", collector.retainedSize() );
+            gen.value( "retainedBytes", collector.getRetainedBytes() );
+            gen.value( "maxBytes", collector.getMaxBytes() );
+            gen.value( "offHeapBytes", collector.getOffHeapBytes() );
+            gen.end();
+        }
+    }
+}
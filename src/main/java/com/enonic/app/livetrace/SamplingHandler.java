@@ -1,17 +1,18 @@
 package com.enonic.app.livetrace;
 
-import java.util.Map;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
 
+import com.google.common.io.ByteSource;
+
 import com.enonic.lib.license.LicenseDetails;
 import com.enonic.lib.license.LicenseManager;
 import com.enonic.xp.app.ApplicationKey;
 import com.enonic.xp.script.bean.BeanContext;
 import com.enonic.xp.script.bean.ScriptBean;
-import com.enonic.xp.script.serializer.MapGenerator;
 import com.enonic.xp.script.serializer.MapSerializable;
-import com.enonic.xp.trace.TraceManager;
 import com.enonic.xp.trace.Tracer;
 
 public class SamplingHandler
@@ -21,22 +22,16 @@ public class SamplingHandler
 
     private Supplier<TraceHandler> traceHandlerSupplier;
 
-    private Supplier<TraceManager> traceManagerSupplier;
-
     private Supplier<LicenseManager> licenseManagerSupplier;
 
-    public String startSampling( final Consumer<Object> onSample )
+    public String startSampling( final String sessionId, final Consumer<Object> onSample )
     {
         if ( !isValidLicense() )
         {
             return null;
         }
-        final TraceManager traceManager = traceManagerSupplier.get();
-        if ( !isEnabled() )
-        {
-            traceManager.enable( true );
-        }
-        final TraceCollector collector = new TraceCollector( traceManager );
+        final TraceCollector collector = new TraceCollector();
+        collector.setSessionId( sessionId );
         collector.setOnTrace( onSample );
         final TraceHandler traceHandler = traceHandlerSupplier.get();
         traceHandler.register( collector );
@@ -51,7 +46,72 @@ public class SamplingHandler
         {
             collector.shutdown();
         }
-        traceManagerSupplier.get().enable( false );
+    }
+
+    public void releaseSampling( final String sessionId )
+    {
+        traceHandlerSupplier.get().release( sessionId );
+    }
+
+    public MapSerializable getTree( final String id, final String traceId )
+    {
+        final TraceCollector collector = traceHandlerSupplier.get().getCollector( id );
+        return collector == null ? new TraceTreeMapper( traceId, null ) : collector.getTree( traceId );
+    }
+
+    public MapSerializable getQueryShapes( final String id, final int limit )
+    {
+        final TraceCollector collector = traceHandlerSupplier.get().getCollector( id );
+        return collector == null ? null : collector.getQueryShapes( limit );
+    }
+
+    public MapSerializable getRepeats( final String id, final int limit )
+    {
+        final TraceCollector collector = traceHandlerSupplier.get().getCollector( id );
+        return collector == null ? null : collector.getRepeats( limit );
+    }
+
+    public MapSerializable getFlameTree( final String id )
+    {
+        final TraceCollector collector = traceHandlerSupplier.get().getCollector( id );
+        return collector == null ? null : collector.getFlameTree();
+    }
+
+    public MapSerializable getLocks( final String id, final int limit )
+    {
+        final TraceCollector collector = traceHandlerSupplier.get().getCollector( id );
+        return collector == null ? null : collector.getLocks( limit );
+    }
+
+    /**
+     * Export of a tracing session, streamed as it is read.
+     */
+    public ByteSource exportSession( final String id )
+    {
+        final TraceCollector collector = traceHandlerSupplier.get().getCollector( id );
+        if ( collector == null || !isValidLicense() )
+        {
+            return null;
+        }
+        return new ByteSource()
+        {
+            @Override
+            public InputStream openStream()
+                throws IOException
+            {
+                return collector.openExport();
+            }
+        };
+    }
+
+    public void subscribeRequestRate( final String sessionId, final Consumer<Object> onData )
+    {
+        traceHandlerSupplier.get().subscribeRequestRate( sessionId, onData );
+    }
+
+    public void unsubscribeRequestRate( final String sessionId )
+    {
+        traceHandlerSupplier.get().unsubscribeRequestRate( sessionId );
     }
 
     public int getRequestsPerSecond()
@@ -63,8 +123,7 @@ public class SamplingHandler
     public MapSerializable getSamplingRequestCount()
     {
         final TraceHandler traceHandler = traceHandlerSupplier.get();
-        final Map<String, Integer> values = traceHandler.getSamplingRequestCount();
-        return ( MapGenerator mapGenerator ) -> values.forEach( mapGenerator::value );
+        return traceHandler.getSamplingRequestCount();
     }
 
     public boolean isEnabled()
@@ -83,7 +142,6 @@ public class SamplingHandler
     public void initialize( final BeanContext context )
     {
         traceHandlerSupplier = context.getService( TraceHandler.class );
-        traceManagerSupplier = context.getService( TraceManager.class );
         licenseManagerSupplier = context.getService( LicenseManager.class );
     }
 }
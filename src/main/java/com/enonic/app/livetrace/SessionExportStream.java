@@ -0,0 +1,131 @@
+package com.enonic.app.livetrace;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.zip.GZIPOutputStream;
+
+import com.fasterxml.jackson.core.JsonFactory;
+
+import com.enonic.xp.script.serializer.MapSerializable;
+
+/**
+ * Gzip-compressed stream of length-delimited JSON records, each a 4-byte big-endian length followed by the UTF-8 JSON of the record.
+ * <p>
+ * Records are serialized and compressed as the stream is read, so only the current record and the pending compressed bytes are held
+ * in memory.
+ */
+final class SessionExportStream
+    extends InputStream
+{
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private final Iterator<MapSerializable> records;
+
+    private final PipelineMetrics metrics;
+
+    private final ByteArrayOutputStream record;
+
+    private final ByteArrayOutputStream compressed;
+
+    private final DataOutputStream out;
+
+    private byte[] chunk;
+
+    private int position;
+
+    private boolean finished;
+
+    SessionExportStream( final Iterator<MapSerializable> records, final PipelineMetrics metrics )
+        throws IOException
+    {
+        this.records = records;
+        this.metrics = metrics;
+        this.record = new ByteArrayOutputStream();
+        this.compressed = new ByteArrayOutputStream();
+        this.out = new DataOutputStream( new GZIPOutputStream( compressed ) );
+        this.chunk = new byte[0];
+    }
+
+    @Override
+    public int read()
+        throws IOException
+    {
+        final byte[] single = new byte[1];
+        return read( single, 0, 1 ) < 0 ? -1 : single[0] & 0xFF;
+    }
+
+    @Override
+    public int read( final byte[] b, final int off, final int len )
+        throws IOException
+    {
+        if ( len == 0 )
+        {
+            return 0;
+        }
+        while ( position >= chunk.length )
+        {
+            if ( !fill() )
+            {
+                return -1;
+            }
+        }
+        final int count = Math.min( len, chunk.length - position );
+        System.arraycopy( chunk, position, b, off, count );
+        position += count;
+        return count;
+    }
+
+    @Override
+    public void close()
+        throws IOException
+    {
+        finished = true;
+        out.close();
+    }
+
+    /**
+     * Compresses records until some compressed bytes are available.
+     *
+     * @return false when all the records have been read
+     */
+    private boolean fill()
+        throws IOException
+    {
+        if ( finished )
+        {
+            return false;
+        }
+        while ( compressed.size() == 0 && records.hasNext() )
+        {
+            write( records.next() );
+        }
+        if ( compressed.size() == 0 )
+        {
+            out.close();
+            finished = true;
+        }
+        chunk = compressed.toByteArray();
+        compressed.reset();
+        position = 0;
+        return true;
+    }
+
+    private void write( final MapSerializable value )
+        throws IOException
+    {
+        final long start = System.nanoTime();
+        record.reset();
+        final JsonMapGenerator gen = new JsonMapGenerator( JSON_FACTORY.createGenerator( record ) );
+        value.serialize( gen );
+        gen.close();
+        out.writeInt( record.size() );
+        record.writeTo( out );
+        if ( metrics != null )
+        {
+            metrics.serialized( System.nanoTime() - start, record.size() );
+        }
+    }
+}
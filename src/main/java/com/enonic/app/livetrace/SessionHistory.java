@@ -0,0 +1,103 @@
+package com.enonic.app.livetrace;
+
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Objects;
+
+import com.enonic.xp.script.serializer.MapSerializable;
+import com.enonic.xp.trace.Trace;
+import com.enonic.xp.trace.TraceEvent;
+
+/**
+ * Metrics ticks and task events recorded during a tracing session, kept to be exported with the trees of the session.
+ * <p>
+ * Both lists are bounded; the oldest entries are dropped first.
+ */
+final class SessionHistory
+{
+    private static final int MAX_TICKS = 3600;
+
+    private static final int MAX_TASK_EVENTS = 10000;
+
+    private final Deque<MapSerializable> ticks;
+
+    private final Deque<MapSerializable> taskEvents;
+
+    SessionHistory()
+    {
+        this.ticks = new ArrayDeque<>();
+        this.taskEvents = new ArrayDeque<>();
+    }
+
+    public void recordTick( final int requestsPerSecond, final OverheadGovernor governor, final int requests, final long retainedBytes )
+    {
+        final long time = Instant.now().toEpochMilli();
+        final double samplingRatio = governor.getSamplingRatio();
+        final double cpuLoad = governor.getProcessCpuLoad();
+        final double heapUsage = governor.getHeapUsage();
+        add( ticks, MAX_TICKS, gen -> {
+            gen.value( "type", "metrics" );
+            gen.value( "time", time );
+            gen.value( "reqSec", requestsPerSecond );
+            gen.value( "requests", requests );
+            gen.value( "retainedBytes", retainedBytes );
+            gen.value( "samplingRatio", samplingRatio );
+            gen.value( "cpuLoad", cpuLoad );
+            gen.value( "heapUsage", heapUsage );
+        } );
+    }
+
+    public void recordTask( final Trace trace, final TraceEvent.Type eventType )
+    {
+        final boolean started = eventType == TraceEvent.Type.START;
+        final String id = trace.getId();
+        final String name = Objects.toString( trace.get( "name" ), null );
+        final String app = Objects.toString( trace.get( "app" ), null );
+        final boolean ended = !started && trace.getEndTime() != null;
+        final Instant time = ended ? trace.getEndTime() : trace.getStartTime();
+        final long duration = ended ? trace.getDuration().toMillis() : 0;
+        add( taskEvents, MAX_TASK_EVENTS, gen -> {
+            gen.value( "type", "task" );
+            gen.value( "event", started ? "start" : "end" );
+            gen.value( "time", time.toEpochMilli() );
+            gen.value( "id", id );
+            gen.value( "name", name );
+            gen.value( "app", app );
+            if ( ended )
+            {
+                gen.value( "duration", duration );
+            }
+        } );
+    }
+
+    public List<MapSerializable> getTicks()
+    {
+        synchronized ( ticks )
+        {
+            return new ArrayList<>( ticks );
+        }
+    }
+
+    public List<MapSerializable> getTaskEvents()
+    {
+        synchronized ( taskEvents )
+        {
+            return new ArrayList<>( taskEvents );
+        }
+    }
+
+    private static void add( final Deque<MapSerializable> entries, final int max, final MapSerializable entry )
+    {
+        synchronized ( entries )
+        {
+            if ( entries.size() >= max )
+            {
+                entries.removeFirst();
+            }
+            entries.addLast( entry );
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.enonic.app.livetrace;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Pool of direct byte buffers used as slabs by {@link TraceArena}. Slabs are returned to the pool when a tracing session is released,
+ * so the off-heap memory is reused by the next session instead of waiting for the garbage collector to free it.
+ */
+final class SlabPool
+{
+    static final int SLAB_SIZE = 1024 * 1024;
+
+    private final Deque<ByteBuffer> free;
+
+    private final int maxPooled;
+
+    SlabPool( final int maxPooled )
+    {
+        this.free = new ArrayDeque<>();
+        this.maxPooled = maxPooled;
+    }
+
+    public synchronized ByteBuffer acquire()
+    {
+        final ByteBuffer slab = free.poll();
+        return slab != null ? slab : ByteBuffer.allocateDirect( SLAB_SIZE );
+    }
+
+    public synchronized void release( final ByteBuffer slab )
+    {
+        if ( slab.capacity() == SLAB_SIZE && free.size() < maxPooled )
+        {
+            slab.clear();
+            free.push( slab );
+        }
+    }
+
+    public synchronized int pooledSlabs()
+    {
+        return free.size();
+    }
+}
@@ -0,0 +1,100 @@
+package com.enonic.app.livetrace;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * WebSocket sessions subscribed to a stream of messages. Messages are encoded to JSON once and the same string is sent to every
+ * subscriber.
+ */
+public final class Subscribers
+{
+    private static final Logger LOG = LoggerFactory.getLogger( Subscribers.class );
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final ConcurrentMap<String, Consumer<Object>> consumers;
+
+    public Subscribers()
+    {
+        this.consumers = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * @return true if this is the first subscriber
+     */
+    public synchronized boolean add( final String sessionId, final Consumer<Object> consumer )
+    {
+        final boolean first = consumers.isEmpty();
+        consumers.put( sessionId, consumer );
+        return first;
+    }
+
+    /**
+     * @return true if there are no subscribers left
+     */
+    public synchronized boolean remove( final String sessionId )
+    {
+        return consumers.remove( sessionId ) != null && consumers.isEmpty();
+    }
+
+    public boolean isEmpty()
+    {
+        return consumers.isEmpty();
+    }
+
+    public int size()
+    {
+        return consumers.size();
+    }
+
+    public void send( final String sessionId, final Object message )
+    {
+        final Consumer<Object> consumer = consumers.get( sessionId );
+        if ( consumer != null )
+        {
+            deliver( sessionId, consumer, encode( message ) );
+        }
+    }
+
+    public void sendToAll( final Object message )
+    {
+        if ( consumers.isEmpty() )
+        {
+            return;
+        }
+        final String json = encode( message );
+        consumers.forEach( ( sessionId, consumer ) -> deliver( sessionId, consumer, json ) );
+    }
+
+    public static String encode( final Object message )
+    {
+        try
+        {
+            return message instanceof String ? (String) message : MAPPER.writeValueAsString( message );
+        }
+        catch ( JsonProcessingException e )
+        {
+            throw new IllegalArgumentException( e );
+        }
+    }
+
+    private void deliver( final String sessionId, final Consumer<Object> consumer, final String json )
+    {
+        try
+        {
+            consumer.accept( json );
+        }
+        catch ( Exception e )
+        {
+            LOG.warn( "Could not send message to WebSocket session " + sessionId + ": " + e.getMessage() );
+        }
+    }
+}
@@ -0,0 +1,554 @@
+package com.enonic.app.livetrace;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.enonic.xp.script.serializer.MapGenerator;
+import com.enonic.xp.trace.Trace;
+
+/**
+ * Off-heap storage of trace trees.
+ * <p>
+ * Trees are encoded into direct byte buffer slabs taken from a {@link SlabPool}, so the traces of a long tracing session do not stay on
+ * the heap. Span names, data keys, app keys and script paths are encoded as references to a dictionary. A slab is returned to the pool
+ * when all the trees stored in it are released, and all the slabs are returned when the arena is closed.
+ */
+final class TraceArena
+{
+    private static final int MAX_DICTIONARY_SIZE = 65536;
+
+    private static final Set<String> DICTIONARY_VALUES = Set.of( "app", "script", "stack", "type", "method", "contentPath" );
+
+    private static final int NULL = 0;
+
+    private static final int STRING = 1;
+
+    private static final int DICTIONARY_STRING = 2;
+
+    private static final int LONG = 3;
+
+    private static final int DOUBLE = 4;
+
+    private static final int TRUE = 5;
+
+    private static final int FALSE = 6;
+
+    private static final int LIST = 7;
+
+    private final SlabPool pool;
+
+    private final List<Slab> slabs;
+
+    private final Map<String, Integer> dictionary;
+
+    private final List<String> strings;
+
+    private Slab current;
+
+    private byte[] buffer;
+
+    private int position;
+
+    private long allocatedBytes;
+
+    private boolean closed;
+
+    TraceArena( final SlabPool pool )
+    {
+        this.pool = pool;
+        this.slabs = new ArrayList<>();
+        this.dictionary = new HashMap<>();
+        this.strings = new ArrayList<>();
+        this.buffer = new byte[8192];
+    }
+
+    /**
+     * @return the stored entry, or null if the arena is closed
+     */
+    public synchronized Entry store( final TraceNode root )
+    {
+        if ( closed )
+        {
+            return null;
+        }
+        position = 0;
+        writeNode( root );
+
+        final int length = position;
+        if ( current == null || current.buffer.capacity() - current.buffer.position() < length )
+        {
+            if ( current != null && current.live == 0 )
+            {
+                releaseSlab( current );
+                slabs.remove( current );
+            }
+            current = new Slab( length > SlabPool.SLAB_SIZE ? ByteBuffer.allocateDirect( length ) : pool.acquire() );
+            slabs.add( current );
+            allocatedBytes += current.buffer.capacity();
+        }
+
+        final int offset = current.buffer.position();
+        current.buffer.put( buffer, 0, length );
+        current.live++;
+        if ( buffer.length > 1024 * 1024 )
+        {
+            buffer = new byte[8192];
+        }
+        return new Entry( current, offset, length );
+    }
+
+    public synchronized void release( final Entry entry )
+    {
+        if ( entry.released )
+        {
+            return;
+        }
+        entry.released = true;
+        entry.slab.live--;
+        if ( entry.slab.live == 0 && entry.slab != current )
+        {
+            releaseSlab( entry.slab );
+            slabs.remove( entry.slab );
+        }
+    }
+
+    /**
+     * Writes a stored tree as the "tree" map, or the "expired" flag if any of its parts has been released. When the tree was stored in
+     * several parts, the root is taken from the last part and the children of all the parts are merged.
+     */
+    public synchronized void serialize( final MapGenerator gen, final List<Entry> parts )
+    {
+        for ( Entry part : parts )
+        {
+            if ( part.released || part.slab.buffer == null )
+            {
+                gen.value( "expired", true );
+                return;
+            }
+        }
+
+        gen.map( "tree" );
+        final Entry last = parts.get( parts.size() - 1 );
+        final Reader root = new Reader( last );
+        readHeader( root, gen );
+
+        gen.array( "children" );
+        for ( Entry part : parts )
+        {
+            final Reader reader = part == last ? root : new Reader( part );
+            if ( part != last )
+            {
+                readHeader( reader, null );
+            }
+            final int children = reader.readInt();
+            for ( int i = 0; i < children; i++ )
+            {
+                readNode( reader, gen );
+            }
+        }
+        gen.end();
+        gen.end();
+    }
+
+    public synchronized void close()
+    {
+        closed = true;
+        slabs.forEach( this::releaseSlab );
+        slabs.clear();
+        current = null;
+        dictionary.clear();
+        strings.clear();
+    }
+
+    public synchronized long getAllocatedBytes()
+    {
+        return allocatedBytes;
+    }
+
+    private void releaseSlab( final Slab slab )
+    {
+        if ( slab.buffer != null )
+        {
+            allocatedBytes -= slab.buffer.capacity();
+            pool.release( slab.buffer );
+            slab.buffer = null;
+        }
+    }
+
+    private void writeNode( final TraceNode node )
+    {
+        final Trace trace = node.getTrace();
+        writeString( trace.getId() );
+        writeValue( trace.getParentId() );
+        writeDictionaryString( trace.getName() );
+        writeInstant( trace.getStartTime() );
+        if ( trace.getEndTime() == null )
+        {
+            writeByte( 0 );
+        }
+        else
+        {
+            writeByte( 1 );
+            writeInstant( trace.getEndTime() );
+        }
+        writeLong( trace.getDuration().toNanos() );
+        writeLong( node.getSelfMicros() );
+        writeByte( node.isCritical() ? 1 : 0 );
+
+        final List<RepeatDetector.RepeatFlag> repeats = node.getRepeats();
+        writeInt( repeats == null ? 0 : repeats.size() );
+        if ( repeats != null )
+        {
+            for ( RepeatDetector.RepeatFlag repeat : repeats )
+            {
+                writeDictionaryString( repeat.getName() );
+                writeString( repeat.getShape() );
+                writeInt( repeat.getCount() );
+                writeByte( repeat.isIdentical() ? 1 : 0 );
+                writeLong( repeat.getTotalMicros() );
+            }
+        }
+
+        writeInt( trace.size() );
+        for ( Map.Entry<String, Object> field : trace.entrySet() )
+        {
+            writeDictionaryString( field.getKey() );
+            if ( DICTIONARY_VALUES.contains( field.getKey() ) && field.getValue() instanceof String )
+            {
+                writeByte( DICTIONARY_STRING );
+                writeDictionaryString( (String) field.getValue() );
+            }
+            else
+            {
+                writeValue( field.getValue() );
+            }
+        }
+
+        writeInt( node.getChildren().size() );
+        for ( TraceNode child : node.getChildren() )
+        {
+            writeNode( child );
+        }
+    }
+
+    private void writeValue( final Object value )
+    {
+        if ( value == null )
+        {
+            writeByte( NULL );
+        }
+        else if ( value instanceof Boolean )
+        {
+            writeByte( (Boolean) value ? TRUE : FALSE );
+        }
+        else if ( value instanceof Double || value instanceof Float )
+        {
+            writeByte( DOUBLE );
+            writeLong( Double.doubleToRawLongBits( ( (Number) value ).doubleValue() ) );
+        }
+        else if ( value instanceof Number )
+        {
+            writeByte( LONG );
+            writeLong( ( (Number) value ).longValue() );
+        }
+        else if ( value instanceof List )
+        {
+            writeByte( LIST );
+            writeInt( ( (List<?>) value ).size() );
+            for ( Object item : (List<?>) value )
+            {
+                writeValue( item );
+            }
+        }
+        else
+        {
+            writeByte( STRING );
+            writeString( value.toString() );
+        }
+    }
+
+    private void writeDictionaryString( final String value )
+    {
+        Integer index = dictionary.get( value );
+        if ( index == null && strings.size() < MAX_DICTIONARY_SIZE )
+        {
+            index = strings.size();
+            dictionary.put( value, index );
+            strings.add( value );
+        }
+        if ( index == null )
+        {
+            writeInt( 0 );
+            writeString( value );
+        }
+        else
+        {
+            writeInt( index + 1 );
+        }
+    }
+
+    private void writeInstant( final Instant instant )
+    {
+        writeLong( instant.getEpochSecond() );
+        writeInt( instant.getNano() );
+    }
+
+    private void writeString( final String value )
+    {
+        final byte[] bytes = value.getBytes( StandardCharsets.UTF_8 );
+        writeInt( bytes.length );
+        ensureCapacity( bytes.length );
+        System.arraycopy( bytes, 0, buffer, position, bytes.length );
+        position += bytes.length;
+    }
+
+    private void writeInt( final int value )
+    {
+        writeLong( value & 0xFFFFFFFFL );
+    }
+
+    private void writeLong( final long value )
+    {
+        ensureCapacity( 10 );
+        long v = value;
+        while ( ( v & ~0x7FL ) != 0 )
+        {
+            buffer[position++] = (byte) ( ( v & 0x7F ) | 0x80 );
+            v >>>= 7;
+        }
+        buffer[position++] = (byte) v;
+    }
+
+    private void writeByte( final int value )
+    {
+        ensureCapacity( 1 );
+        buffer[position++] = (byte) value;
+    }
+
+    private void ensureCapacity( final int length )
+    {
+        if ( position + length > buffer.length )
+        {
+            buffer = Arrays.copyOf( buffer, Math.max( buffer.length * 2, position + length ) );
+        }
+    }
+
+    private void readNode( final Reader reader, final MapGenerator gen )
+    {
+        gen.map();
+        readHeader( reader, gen );
+        final int children = reader.readInt();
+        if ( children > 0 )
+        {
+            gen.array( "children" );
+            for ( int i = 0; i < children; i++ )
+            {
+                readNode( reader, gen );
+            }
+            gen.end();
+        }
+        gen.end();
+    }
+
+    /**
+     * Reads the fields of a node up to its children, writing them to the generator if not null.
+     */
+    private void readHeader( final Reader reader, final MapGenerator gen )
+    {
+        final String id = reader.readString();
+        final Object parentId = reader.readValue();
+        final String name = reader.readDictionaryString();
+        final Instant start = reader.readInstant();
+        final Instant end = reader.readByte() == 0 ? null : reader.readInstant();
+        final long durationNanos = reader.readLong();
+        final long selfMicros = reader.readLong();
+        final boolean critical = reader.readByte() != 0;
+
+        if ( gen != null )
+        {
+            gen.value( "id", id );
+            gen.value( "parent", parentId );
+            gen.value( "name", name );
+            gen.value( "start", start );
+            gen.value( "end", end );
+            gen.value( "duration", durationNanos / 1_000_000 );
+            gen.value( "time", durationNanos / 1_000_000 );
+            gen.value( "micro", durationNanos % 1_000_000_000 / 1000 % 1000 );
+        }
+
+        final int repeatCount = reader.readInt();
+        final List<RepeatDetector.RepeatFlag> repeats = new ArrayList<>( repeatCount );
+        for ( int i = 0; i < repeatCount; i++ )
+        {
+            repeats.add( new RepeatDetector.RepeatFlag( id, reader.readDictionaryString(), reader.readString(), reader.readInt(),
+                                                        reader.readByte() != 0, reader.readLong() ) );
+        }
+
+        if ( gen != null )
+        {
+            gen.map( "data" );
+        }
+        final int fields = reader.readInt();
+        for ( int i = 0; i < fields; i++ )
+        {
+            final String key = reader.readDictionaryString();
+            final Object value = reader.readValue();
+            if ( gen == null )
+            {
+                continue;
+            }
+            if ( value instanceof List )
+            {
+                gen.array( key );
+                ( (List<?>) value ).forEach( gen::value );
+                gen.end();
+            }
+            else
+            {
+                gen.value( key, value );
+            }
+        }
+
+        if ( gen != null )
+        {
+            gen.end();
+            gen.value( "selfTime", selfMicros / 1000.0 );
+            gen.value( "critical", critical );
+            if ( !repeats.isEmpty() )
+            {
+                TraceTreeMapper.serializeRepeats( gen, repeats );
+            }
+        }
+    }
+
+    static final class Entry
+    {
+        private final Slab slab;
+
+        private final int offset;
+
+        private final int length;
+
+        private boolean released;
+
+        Entry( final Slab slab, final int offset, final int length )
+        {
+            this.slab = slab;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        public int getLength()
+        {
+            return length;
+        }
+    }
+
+    private static final class Slab
+    {
+        private ByteBuffer buffer;
+
+        private int live;
+
+        Slab( final ByteBuffer buffer )
+        {
+            this.buffer = buffer;
+        }
+    }
+
+    private final class Reader
+    {
+        private final ByteBuffer buffer;
+
+        private int position;
+
+        Reader( final Entry entry )
+        {
+            this.buffer = entry.slab.buffer;
+            this.position = entry.offset;
+        }
+
+        int readByte()
+        {
+            return buffer.get( position++ ) & 0xFF;
+        }
+
+        long readLong()
+        {
+            long value = 0;
+            int shift = 0;
+            int b;
+            do
+            {
+                b = readByte();
+                value |= (long) ( b & 0x7F ) << shift;
+                shift += 7;
+            }
+            while ( ( b & 0x80 ) != 0 );
+            return value;
+        }
+
+        int readInt()
+        {
+            return (int) readLong();
+        }
+
+        String readString()
+        {
+            final int length = readInt();
+            final byte[] bytes = new byte[length];
+            buffer.get( position, bytes );
+            position += length;
+            return new String( bytes, StandardCharsets.UTF_8 );
+        }
+
+        String readDictionaryString()
+        {
+            final int index = readInt();
+            return index == 0 ? readString() : strings.get( index - 1 );
+        }
+
+        Instant readInstant()
+        {
+            final long seconds = readLong();
+            return Instant.ofEpochSecond( seconds, readInt() );
+        }
+
+        Object readValue()
+        {
+            final int type = readByte();
+            switch ( type )
+            {
+                case STRING:
+                    return readString();
+                case DICTIONARY_STRING:
+                    return readDictionaryString();
+                case LONG:
+                    return readLong();
+                case DOUBLE:
+                    return Double.longBitsToDouble( readLong() );
+                case TRUE:
+                    return true;
+                case FALSE:
+                    return false;
+                case LIST:
+                    final int size = readInt();
+                    final List<Object> list = new ArrayList<>( size );
+                    for ( int i = 0; i < size; i++ )
+                    {
+                        list.add( readValue() );
+                    }
+                    return list;
+                default:
+                    return null;
+            }
+        }
+    }
+}
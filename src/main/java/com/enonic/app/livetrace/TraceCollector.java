@@ -1,50 +1,95 @@
 package com.enonic.app.livetrace;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.UUID;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.ListMultimap;
 import com.google.common.collect.Multimaps;
 
+import com.enonic.xp.script.serializer.MapSerializable;
 import com.enonic.xp.trace.Trace;
 import com.enonic.xp.trace.TraceEvent;
-import com.enonic.xp.trace.TraceManager;
 
 public final class TraceCollector
 {
     private final String id;
 
-    private final ListMultimap<String, Trace> traces;
+    private String sessionId;
+
+    private final ConcurrentMap<String, TraceNode> pendingNodes;
 
     private final ListMultimap<String, Trace> taskTraces;
 
     private final AtomicInteger requestCount;
 
+    private final AtomicLong retainedBytes;
+
+    private final Map<String, RetainedTree> retainedTrees;
+
+    private long maxBytes = Long.MAX_VALUE;
+
+    private boolean retainTrees = true;
+
+    private final QueryShapeAggregator queryShapes;
+
+    private final RepeatAggregator repeats;
+
+    private final FlameTreeAggregator flameTree;
+
+    private final LockContentionAggregator lockContention;
+
+    private final SessionHistory history;
+
+    private int repeatThreshold = 5;
+
     private final Instant started;
 
     private Consumer<Object> onTrace;
 
-    private final ExecutorService scheduler;
+    private Consumer<MapSerializable> onTree;
+
+    private final ThreadPoolExecutor scheduler;
 
-    private final TraceManager traceManager;
+    private OverheadGovernor governor;
 
-    public TraceCollector( final TraceManager traceMan )
+    private TraceArena arena;
+
+    private PipelineMetrics metrics;
+
+    public TraceCollector()
     {
         id = UUID.randomUUID().toString();
-        traces = Multimaps.synchronizedListMultimap( ArrayListMultimap.create() );
+        pendingNodes = new ConcurrentHashMap<>();
         taskTraces = Multimaps.synchronizedListMultimap( ArrayListMultimap.create() );
         requestCount = new AtomicInteger( 0 );
+        retainedBytes = new AtomicLong( 0 );
+        retainedTrees = new LinkedHashMap<>( 16, 0.75f, true );
+        queryShapes = new QueryShapeAggregator();
+        repeats = new RepeatAggregator();
+        flameTree = new FlameTreeAggregator();
+        lockContention = new LockContentionAggregator();
+        history = new SessionHistory();
         started = Instant.now();
-        scheduler = Executors.newFixedThreadPool( 10 );
-        traceManager = traceMan;
+        scheduler = new ThreadPoolExecutor( 10, 10, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>() );
     }
 
     public void shutdown()
@@ -61,10 +106,9 @@ public final class TraceCollector
         {
             onTrace.accept( "stop" );
         }
-        traceManager.enable( false );
     }
 
-    public void add( final Trace trace, final TraceEvent.Type eventType )
+    public void add( final Trace trace, final TraceEvent.Type eventType, final LockContention contention )
     {
         if ( trace.getName().equals( "task.run" ) )
         {
@@ -76,12 +120,21 @@ public final class TraceCollector
             {
                 taskTraces.removeAll( trace.getId() );
             }
+            history.recordTask( trace, eventType );
             return;
         }
 
+        final TraceNode node = removePendingNode( trace.getId() );
+        node.setTrace( trace );
+        node.setContention( contention );
+
         if ( trace.getParentId() != null )
         {
-            traces.put( trace.getParentId(), trace );
+            pendingNodes.compute( trace.getParentId(), ( parentId, parent ) -> {
+                final TraceNode parentNode = parent == null ? new TraceNode() : parent;
+                parentNode.addChild( node );
+                return parentNode;
+            } );
         }
 
         if ( trace.getParentId() == null )
@@ -93,37 +146,296 @@ public final class TraceCollector
         {
             if ( taskTraces.containsKey( trace.getParentId() ) )
             {
-                scheduler.submit( () -> this.sendTraces( taskTraces.get( trace.getParentId() ).get( 0 ) ) );
+                scheduler.submit( () -> this.sendTaskTraces( taskTraces.get( trace.getParentId() ).get( 0 ) ) );
             }
             else if ( trace.getParentId() == null )
             {
-                scheduler.submit( () -> this.sendTraces( trace ) );
+                scheduler.submit( () -> this.sendTraces( node ) );
             }
         }
     }
 
-    private void sendTraces( final Trace trace )
+    private TraceNode removePendingNode( final String id )
+    {
+        final TraceNode node = pendingNodes.remove( id );
+        return node == null ? new TraceNode() : node;
+    }
+
+    private void sendTaskTraces( final Trace taskTrace )
+    {
+        final TraceNode node = pendingNodes.remove( taskTrace.getId() );
+        if ( node != null )
+        {
+            node.setTrace( taskTrace );
+            sendTraces( node );
+        }
+    }
+
+    private void sendTraces( final TraceNode root )
     {
+        final long start = System.nanoTime();
         try
         {
-            final ArrayList<Trace> traces = new ArrayList<>();
-            traces.add( trace );
-            collectSubTraces( traces, trace );
-            onTrace.accept( new TracesMapper( traces ) );
+            final Trace trace = root.getTrace();
+            final List<RepeatDetector.RepeatFlag> repeatFlags = new RepeatDetector( repeatThreshold ).detect( root );
+            TreeAnalyzer.analyze( root );
+            final List<Trace> traces = new ArrayList<>();
+            root.collect( traces );
+            final long sendStart = System.nanoTime();
+            onTrace.accept( new TraceSummaryMapper( root, traces.size(), repeatFlags ) );
+            if ( metrics != null )
+            {
+                metrics.sent( System.nanoTime() - sendStart );
+            }
+            if ( onTree != null )
+            {
+                onTree.accept( new TraceTreeMapper( trace.getId(), root ) );
+            }
+            if ( retainTrees )
+            {
+                retain( root, traces );
+            }
+            if ( !repeatFlags.isEmpty() )
+            {
+                repeats.record( Objects.toString( trace.get( "path" ), trace.getName() ), repeatFlags );
+            }
+            if ( trace.getEndTime() != null )
+            {
+                flameTree.record( root );
+            }
+            if ( root.getContention() != null && !root.getContention().getLocks().isEmpty() )
+            {
+                lockContention.record( Objects.toString( trace.get( "path" ), trace.getName() ), root.getContention() );
+            }
+
+            for ( Trace t : traces )
+            {
+                if ( QueryShapeAggregator.isQuery( t ) )
+                {
+                    queryShapes.record( t );
+                }
+            }
         }
         catch ( Throwable t )
         {
             t.printStackTrace();
         }
+        finally
+        {
+            recordCost( start );
+        }
+    }
+
+    private void retain( final TraceNode root, final List<Trace> tree )
+    {
+        final TraceArena.Entry entry = arena != null ? arena.store( root ) : null;
+        if ( arena != null && entry == null )
+        {
+            // the session has been closed
+            return;
+        }
+        long treeBytes = 0;
+        if ( entry != null )
+        {
+            treeBytes = entry.getLength();
+        }
+        else
+        {
+            for ( Trace t : tree )
+            {
+                treeBytes += TraceSizeEstimator.estimate( t );
+            }
+        }
+
+        synchronized ( retainedTrees )
+        {
+            final String rootId = root.getTrace().getId();
+            final RetainedTree previous = retainedTrees.remove( rootId );
+            final RetainedTree retained;
+            if ( previous == null )
+            {
+                retained = entry != null
+                ? new RetainedTree( List.of( entry ), treeBytes, tree.size() )
+                : new RetainedTree( root, treeBytes, tree.size() );
+            }
+            else if ( entry != null )
+            {
+                final List<TraceArena.Entry> parts = new ArrayList<>( previous.parts );
+                parts.add( entry );
+                retained = new RetainedTree( parts, previous.bytes + treeBytes, previous.spans + tree.size() );
+            }
+            else
+            {
+                final TraceNode merged = TraceNode.merge( previous.root, root );
+                TreeAnalyzer.analyze( merged );
+                retained = new RetainedTree( merged, previous.bytes + treeBytes, previous.spans + tree.size() );
+            }
+            retainedTrees.put( rootId, retained );
+            retainedBytes.addAndGet( retained.bytes - ( previous == null ? 0 : previous.bytes ) );
+
+            final Iterator<RetainedTree> eldest = retainedTrees.values().iterator();
+            while ( overBudget() && retainedTrees.size() > 1 )
+            {
+                final RetainedTree evicted = eldest.next();
+                retainedBytes.addAndGet( -evicted.bytes );
+                eldest.remove();
+                if ( metrics != null )
+                {
+                    metrics.spansEvicted( evicted.spans );
+                }
+                if ( evicted.parts != null )
+                {
+                    evicted.parts.forEach( arena::release );
+                }
+            }
+        }
+    }
+
+    /**
+     * Off-heap, a slab stays allocated while any of its trees is retained, so the budget is checked against the allocated slabs rather
+     * than the encoded size of the trees. The slab being filled is always allocated, and is not counted against a smaller budget.
+     */
+    private boolean overBudget()
+    {
+        if ( arena != null )
+        {
+            return arena.getAllocatedBytes() > Math.max( maxBytes, SlabPool.SLAB_SIZE );
+        }
+        return retainedBytes.get() > maxBytes;
+    }
+
+    public MapSerializable getTree( final String traceId )
+    {
+        final RetainedTree retained;
+        synchronized ( retainedTrees )
+        {
+            retained = retainedTrees.get( traceId );
+        }
+        final MapSerializable tree;
+        if ( retained != null && retained.parts != null )
+        {
+            tree = gen -> {
+                gen.value( "traceId", traceId );
+                arena.serialize( gen, retained.parts );
+            };
+        }
+        else
+        {
+            tree = new TraceTreeMapper( traceId, retained == null ? null : retained.root );
+        }
+        if ( metrics == null )
+        {
+            return tree;
+        }
+        return gen -> {
+            final long start = System.nanoTime();
+            tree.serialize( gen );
+            metrics.serialized( System.nanoTime() - start, 0 );
+        };
+    }
+
+    void recordTick( final int requestsPerSecond )
+    {
+        if ( governor != null )
+        {
+            history.recordTick( requestsPerSecond, governor, requestCount.get(), retainedBytes.get() );
+        }
+    }
+
+    /**
+     * Opens a stream with the records of this session: a header, the metrics ticks, the task events and the retained trees, most
+     * recently viewed last. Trees are serialized as the stream is read; trees evicted in the meantime are still exported if on heap.
+     */
+    public InputStream openExport()
+        throws IOException
+    {
+        final List<Map.Entry<String, RetainedTree>> retained;
+        synchronized ( retainedTrees )
+        {
+            retained = new ArrayList<>( retainedTrees.entrySet() );
+        }
+        final Instant exported = Instant.now();
+        final MapSerializable header = gen -> {
+            gen.value( "type", "session" );
+            gen.value( "samplingId", id );
+            gen.value( "started", started.toString() );
+            gen.value( "exported", exported.toString() );
+            gen.value( "requests", requestCount.get() );
+            gen.value( "trees", retained.size() );
+        };
+        final Stream<MapSerializable> trees = retained.stream().map( entry -> gen -> {
+            gen.value( "type", "tree" );
+            gen.value( "traceId", entry.getKey() );
+            if ( entry.getValue().parts != null )
+            {
+                arena.serialize( gen, entry.getValue().parts );
+            }
+            else
+            {
+                gen.map( "tree" );
+                TraceTreeMapper.serializeNode( gen, entry.getValue().root );
+                gen.end();
+            }
+        } );
+        final Stream<MapSerializable> records =
+            Stream.concat( Stream.concat( Stream.of( header ), history.getTicks().stream() ),
+                           Stream.concat( history.getTaskEvents().stream(), trees ) );
+        return new SessionExportStream( records.iterator(), metrics );
+    }
+
+    /**
+     * Drops the spans waiting for their parent to end, used when capture is paused and the parents will never be added.
+     */
+    public void clearPending()
+    {
+        if ( metrics != null )
+        {
+            long orphaned = 0;
+            for ( TraceNode pending : pendingNodes.values() )
+            {
+                orphaned += pending.countTraces();
+            }
+            metrics.spansOrphaned( orphaned );
+        }
+        pendingNodes.clear();
+        taskTraces.clear();
+    }
+
+    /**
+     * Releases the trees retained by this collector, returning the off-heap slabs to the pool.
+     */
+    public void close()
+    {
+        clearPending();
+        synchronized ( retainedTrees )
+        {
+            retainedTrees.clear();
+            retainedBytes.set( 0 );
+        }
+        if ( arena != null )
+        {
+            arena.close();
+        }
+    }
+
+    private void recordCost( final long start )
+    {
+        final long cost = System.nanoTime() - start;
+        if ( governor != null )
+        {
+            governor.recordTreeCost( cost );
+        }
+        if ( metrics != null )
+        {
+            metrics.assembled( cost );
+        }
     }
 
-    private void collectSubTraces( final List<Trace> traceList, final Trace parent )
+    void sendMessage( final Object message )
     {
-        final List<Trace> subTraces = traces.removeAll( parent.getId() );
-        traceList.addAll( subTraces );
-        for ( Trace t : subTraces )
+        if ( onTrace != null )
         {
-            collectSubTraces( traceList, t );
+            onTrace.accept( message );
         }
     }
 
@@ -132,11 +444,79 @@ public final class TraceCollector
         return id;
     }
 
+    public String getSessionId()
+    {
+        return sessionId;
+    }
+
+    public void setSessionId( final String sessionId )
+    {
+        this.sessionId = sessionId;
+    }
+
     public int size()
     {
         return requestCount.get();
     }
 
+    public int retainedSize()
+    {
+        synchronized ( retainedTrees )
+        {
+            return retainedTrees.size();
+        }
+    }
+
+    public long getRetainedBytes()
+    {
+        return retainedBytes.get();
+    }
+
+    public long getOffHeapBytes()
+    {
+        return arena == null ? 0 : arena.getAllocatedBytes();
+    }
+
+    public int getQueueDepth()
+    {
+        return scheduler.getQueue().size();
+    }
+
+    public long getMaxBytes()
+    {
+        return maxBytes;
+    }
+
+    void setMaxBytes( final long maxBytes )
+    {
+        this.maxBytes = maxBytes;
+    }
+
+    public MapSerializable getQueryShapes( final int limit )
+    {
+        return new QueryShapesMapper( queryShapes.slowest( limit ) );
+    }
+
+    public MapSerializable getRepeats( final int limit )
+    {
+        return new RepeatsMapper( repeats.costliest( limit ) );
+    }
+
+    public MapSerializable getFlameTree()
+    {
+        return flameTree::serialize;
+    }
+
+    public MapSerializable getLocks( final int limit )
+    {
+        return new LockContentionMapper( lockContention.mostContended( limit ), LockContentionTracker.SAMPLE_INTERVAL_MILLIS );
+    }
+
+    void setRepeatThreshold( final int repeatThreshold )
+    {
+        this.repeatThreshold = repeatThreshold;
+    }
+
     public boolean runningLongerThan( final Duration duration )
     {
         return started.plus( duration ).isBefore( Instant.now() );
@@ -147,4 +527,66 @@ public final class TraceCollector
         this.onTrace = onTrace;
     }
 
+    /**
+     * Receives the full tree of every sampled request, in addition to the summary sent to {@code onTrace}.
+     */
+    void setOnTree( final Consumer<MapSerializable> onTree )
+    {
+        this.onTree = onTree;
+    }
+
+    /**
+     * Set to false when the trees are written out through {@code onTree} and do not need to be kept for the tool.
+     */
+    void setRetainTrees( final boolean retainTrees )
+    {
+        this.retainTrees = retainTrees;
+    }
+
+    boolean isRetainingTrees()
+    {
+        return retainTrees;
+    }
+
+    void setGovernor( final OverheadGovernor governor )
+    {
+        this.governor = governor;
+    }
+
+    void setMetrics( final PipelineMetrics metrics )
+    {
+        this.metrics = metrics;
+    }
+
+    void setArena( final TraceArena arena )
+    {
+        this.arena = arena;
+    }
+
+    private static final class RetainedTree
+    {
+        private final TraceNode root;
+
+        private final List<TraceArena.Entry> parts;
+
+        private final long bytes;
+
+        private final int spans;
+
+        RetainedTree( final TraceNode root, final long bytes, final int spans )
+        {
+            this.root = root;
+            this.parts = null;
+            this.bytes = bytes;
+            this.spans = spans;
+        }
+
+        RetainedTree( final List<TraceArena.Entry> parts, final long bytes, final int spans )
+        {
+            this.root = null;
+            this.parts = parts;
+            this.bytes = bytes;
+            this.spans = spans;
+        }
+    }
 }
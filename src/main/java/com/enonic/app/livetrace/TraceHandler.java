@@ -1,8 +1,15 @@
 package com.enonic.app.livetrace;
 
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.time.Duration;
-import java.util.HashMap;
-import java.util.Map;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
 import java.util.Objects;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
@@ -10,19 +17,30 @@ import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 import org.osgi.service.component.annotations.Activate;
 import org.osgi.service.component.annotations.Component;
 import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.component.annotations.ReferenceCardinality;
+import org.osgi.service.component.annotations.ReferencePolicy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.base.Strings;
+import com.google.common.base.Utf8;
+import com.google.common.primitives.Doubles;
 import com.google.common.primitives.Longs;
 
+import com.enonic.app.livetrace.otlp.OtlpExporter;
 import com.enonic.xp.app.ApplicationKey;
+import com.enonic.xp.script.serializer.MapSerializable;
 import com.enonic.xp.trace.Trace;
 import com.enonic.xp.trace.TraceEvent;
 import com.enonic.xp.trace.TraceListener;
+import com.enonic.xp.trace.TraceManager;
+import com.enonic.xp.trace.Tracer;
 
 @Component(immediate = true, service = {TraceListener.class, TraceHandler.class}, configurationPid = "com.enonic.app.livetrace")
 public final class TraceHandler
@@ -36,22 +54,89 @@ public final class TraceHandler
 
     private static final Long DEFAULT_MAX_MINUTES = 10L;
 
-    private static final Long DEFAULT_MAX_REQUESTS = 1_000L;
+    private static final Long DEFAULT_MAX_MEGABYTES = 64L;
+
+    private static final int DEFAULT_REPEAT_THRESHOLD = 5;
+
+    private static final String CAPTURE_SESSION_ID = "capture";
+
+    private static final DateTimeFormatter CAPTURE_FILE_TIME = DateTimeFormatter.ofPattern( "yyyyMMdd'T'HHmmss'Z'" );
 
     private final ConcurrentMap<String, TraceCollector> collectors;
 
+    private final ConcurrentMap<String, TraceCollector> stoppedCollectors;
+
     private final RequestRate requestRate;
 
     private final ScheduledExecutorService scheduler;
 
     private ScheduledFuture<?> autoStopFuture;
 
+    private ScheduledFuture<?> governorFuture;
+
+    private ScheduledFuture<?> broadcastFuture;
+
+    private ScheduledFuture<?> contentionFuture;
+
+    private final Subscribers rateSubscribers;
+
+    private volatile String lastBroadcast;
+
+    private OverheadGovernor governor = new OverheadGovernor( 0.01, 0.9, 0.9 );
+
     private Duration maxDuration = Duration.ofMinutes( DEFAULT_MAX_MINUTES );
 
+    private long maxBytes = DEFAULT_MAX_MEGABYTES * 1024 * 1024;
+
+    private int repeatThreshold = DEFAULT_REPEAT_THRESHOLD;
+
+    private SlabPool slabPool;
+
+    private OtlpExporter exporter;
+
+    private LockContentionTracker contentionTracker;
+
+    private CaptureTrigger captureTrigger;
+
+    private final RequestMeters requestMeters = new RequestMeters();
+
+    private ScheduledFuture<?> triggerFuture;
+
+    private Path captureDir;
+
+    private long captureSeconds;
+
+    private Duration captureCooldown;
+
+    private int captureDailyLimit;
+
+    private int captureMaxFiles;
+
+    private TraceCollector capture;
+
+    private Instant lastCaptureEnd = Instant.EPOCH;
+
+    private LocalDate captureDay = LocalDate.MIN;
+
+    private int capturesToday;
+
+    private volatile TraceManager traceManager;
+
+    private boolean tracingEnabled;
+
+    private volatile boolean exporting;
+
+    private final ConcurrentMap<String, Instant> unsampled;
+
+    private PipelineMetrics metrics;
+
     public TraceHandler()
     {
         collectors = new ConcurrentHashMap<>();
+        stoppedCollectors = new ConcurrentHashMap<>();
+        unsampled = new ConcurrentHashMap<>();
         requestRate = new RequestRate();
+        rateSubscribers = new Subscribers();
         scheduler = Executors.newScheduledThreadPool( 1 );
         liveTraceApp = ApplicationKey.from( "com.enonic.app.livetrace" ).toString();
         liveTraceAppPrefix = liveTraceApp + ":";
@@ -60,11 +145,80 @@ public final class TraceHandler
     @Activate
     public void activate( final LiveTraceConfig config )
     {
+        metrics = new PipelineMetrics( this );
+
         Long timeValue = Longs.tryParse( config.maxTracingTime() );
         timeValue = ( timeValue == null || timeValue < 1 ) ? DEFAULT_MAX_MINUTES : timeValue;
         maxDuration = Duration.ofMinutes( timeValue );
         autoStopFuture = scheduler.scheduleAtFixedRate( this::autoStop, 0, 10, TimeUnit.SECONDS );
         LOG.info( "Live Trace maximum tracing time is " + timeValue + " minutes." );
+
+        final long maxMegabytes = longValue( config.maxTracingMemory(), DEFAULT_MAX_MEGABYTES );
+        maxBytes = ( maxMegabytes < 1 ? DEFAULT_MAX_MEGABYTES : maxMegabytes ) * 1024 * 1024;
+        LOG.info( "Live Trace memory budget per tracing session is " + maxBytes / ( 1024 * 1024 ) + " MB." );
+
+        if ( Boolean.parseBoolean( Strings.nullToEmpty( config.offHeapStorage() ).trim() ) )
+        {
+            slabPool = new SlabPool( (int) ( maxBytes / SlabPool.SLAB_SIZE ) );
+            LOG.info( "Live Trace stores captured requests off-heap." );
+        }
+
+        governor = new OverheadGovernor( percentValue( config.overheadBudget(), 1 ), percentValue( config.heapPauseThreshold(), 90 ),
+                                         percentValue( config.cpuLoadThreshold(), 90 ) );
+        governorFuture = scheduler.scheduleAtFixedRate( this::updateGovernor, 1, 1, TimeUnit.SECONDS );
+        LOG.info( "Live Trace overhead budget is " + governor.getOverheadBudget() * 100 + "% CPU." );
+
+        final long repeats = longValue( config.repeatThreshold(), DEFAULT_REPEAT_THRESHOLD );
+        repeatThreshold = repeats < 2 ? DEFAULT_REPEAT_THRESHOLD : (int) repeats;
+
+        if ( Boolean.parseBoolean( Strings.nullToEmpty( config.lockContention() ).trim() ) )
+        {
+            contentionTracker = new LockContentionTracker( maxDuration );
+            LOG.info( "Live Trace tracks lock contention of requests." );
+        }
+
+        final CaptureTrigger trigger =
+            new CaptureTrigger( longValue( config.triggerLatency(), 0 ), longValue( config.triggerRequestRate(), 0 ),
+                                percentValue( config.triggerErrorRatio(), 0 ),
+                                (int) Math.max( 1, longValue( config.triggerWindow(), 30 ) ) );
+        if ( trigger.hasRules() )
+        {
+            captureTrigger = trigger;
+            captureSeconds = Math.max( 1, longValue( config.triggerCaptureTime(), 60 ) );
+            captureCooldown = Duration.ofMinutes( longValue( config.triggerCooldown(), 30 ) );
+            captureDailyLimit = (int) longValue( config.triggerDailyLimit(), 4 );
+            captureMaxFiles = (int) Math.max( 1, longValue( config.triggerMaxFiles(), 20 ) );
+            captureDir = Strings.isNullOrEmpty( config.triggerStorage() ) ? defaultCaptureDir() : Path.of( config.triggerStorage() );
+            triggerFuture = scheduler.scheduleAtFixedRate( this::evaluateTriggers, 1, 1, TimeUnit.SECONDS );
+            LOG.info( "Live Trace capture rules enabled, captures are stored in " + captureDir + "." );
+        }
+
+        if ( !Strings.isNullOrEmpty( config.otlpEndpoint() ) )
+        {
+            exporter = new OtlpExporter( URI.create( config.otlpEndpoint() ), config.otlpServiceName(),
+                                         (int) longValue( config.otlpQueueSize(), 4096 ), (int) longValue( config.otlpBatchSize(), 512 ),
+                                         Duration.ofSeconds( longValue( config.otlpBatchTimeout(), 5 ) ),
+                                         (int) longValue( config.otlpMaxRetries(), 5 ) );
+            exporter.start();
+        }
+    }
+
+    private static Path defaultCaptureDir()
+    {
+        final String xpHome = System.getProperty( "xp.home" );
+        return Path.of( xpHome != null ? xpHome : System.getProperty( "java.io.tmpdir" ), "work", "livetrace" );
+    }
+
+    private static long longValue( final String value, final long defaultValue )
+    {
+        final Long parsed = Longs.tryParse( Strings.nullToEmpty( value ).trim() );
+        return parsed == null || parsed < 0 ? defaultValue : parsed;
+    }
+
+    private static double percentValue( final String value, final double defaultPercent )
+    {
+        final Double parsed = Doubles.tryParse( Strings.nullToEmpty( value ).trim() );
+        return ( parsed == null || parsed <= 0 ? defaultPercent : parsed ) / 100;
     }
 
     @Deactivate
@@ -72,61 +226,169 @@ public final class TraceHandler
         throws Exception
     {
         autoStopFuture.cancel( true );
+        governorFuture.cancel( true );
+        if ( broadcastFuture != null )
+        {
+            broadcastFuture.cancel( true );
+        }
+        if ( triggerFuture != null )
+        {
+            triggerFuture.cancel( true );
+            stopCapture();
+        }
+        if ( contentionFuture != null )
+        {
+            contentionFuture.cancel( true );
+            contentionTracker.disable();
+        }
         for ( TraceCollector collector : collectors.values() )
         {
             collector.shutdown();
+            collector.close();
         }
+        collectors.clear();
+        updateTracing();
+        stoppedCollectors.values().forEach( TraceCollector::close );
+        stoppedCollectors.clear();
+        if ( exporter != null )
+        {
+            exporter.shutdown();
+        }
+        metrics.close();
     }
 
     @Override
     public void onTrace( final TraceEvent event )
+    {
+        final long start = System.nanoTime();
+        metrics.eventIngested();
+        try
+        {
+            if ( !handle( event ) )
+            {
+                metrics.eventFiltered();
+            }
+        }
+        finally
+        {
+            governor.recordEventCost( System.nanoTime() - start );
+        }
+    }
+
+    /**
+     * @return true if the event was passed to the collectors
+     */
+    private boolean handle( final TraceEvent event )
     {
         final Trace trace = event.getTrace();
         final TraceEvent.Type eventType = event.getType();
-        if ( eventType != TraceEvent.Type.END && !trace.getName().equals( "task.run" ) )
+        final boolean taskRun = trace.getName().equals( "task.run" );
+        if ( eventType != TraceEvent.Type.END )
         {
-            return;
+            if ( collectors.isEmpty() || !sample( trace ) || !taskRun && !tracksContention( trace ) )
+            {
+                return false;
+            }
         }
+        final boolean sampled = eventType != TraceEvent.Type.END || unsampled.remove( trace.getId() ) == null;
+        final LockContention contention =
+            contentionTracker != null && eventType == TraceEvent.Type.END && trace.getParentId() == null && !taskRun
+                ? contentionTracker.end( trace )
+                : null;
+
         final String sourceScript = Objects.toString( trace.get( "script" ), null ) ;
         if ( sourceScript != null && sourceScript.startsWith( liveTraceAppPrefix ) )
         {
-            return;
+            return false;
         }
         final String sourceApp = Objects.toString( trace.get( "app" ), null );
         if ( sourceApp != null && sourceApp.equals( liveTraceApp ) )
         {
-            return;
+            return false;
         }
 
+        if ( eventType != TraceEvent.Type.END && !taskRun )
+        {
+            contentionTracker.start( trace );
+            return true;
+        }
         if ( "portalRequest".equals( trace.getName() ) )
         {
             requestRate.addRequest( trace.getEndTime() );
         }
-        process( trace, eventType );
+        return sampled && process( trace, eventType, contention );
     }
 
-    private void process( final Trace trace, final TraceEvent.Type eventType )
+    /**
+     * Draws the sampling decision of a request when its root starts, and passes it on to the spans started under it, so the events of
+     * requests that are not sampled are dropped before any tree is assembled, and the collectors and the exporter all keep the same
+     * requests.
+     *
+     * @return false if the trace belongs to a request that is not sampled
+     */
+    private boolean sample( final Trace trace )
     {
-        if ( collectors.isEmpty() )
+        final boolean sampled = trace.getParentId() == null ? governor.sample() : !unsampled.containsKey( trace.getParentId() );
+        if ( !sampled )
         {
-            return;
+            unsampled.put( trace.getId(), trace.getStartTime() );
+        }
+        return sampled;
+    }
+
+    private boolean tracksContention( final Trace trace )
+    {
+        return contentionTracker != null && trace.getParentId() == null;
+    }
+
+    private boolean process( final Trace trace, final TraceEvent.Type eventType, final LockContention contention )
+    {
+        if ( collectors.isEmpty() || governor.isPaused() )
+        {
+            return false;
         }
 
         for ( TraceCollector collector : collectors.values() )
         {
-            collector.add( trace, eventType );
+            collector.add( trace, eventType, contention );
+        }
+        if ( exporting && eventType == TraceEvent.Type.END )
+        {
+            export( trace );
+        }
+        return true;
+    }
+
+    /**
+     * Exports each sampled tree once, whatever the number of collectors, including task roots.
+     */
+    private void export( final Trace trace )
+    {
+        if ( trace.getParentId() != null )
+        {
+            exporter.add( trace );
+        }
+        else
+        {
+            exporter.exportTree( trace );
         }
     }
 
     private void autoStop()
     {
-        if ( collectors.isEmpty() )
+        if ( exporter == null && collectors.isEmpty() )
         {
             return;
         }
 
         try
         {
+            if ( exporter != null )
+            {
+                metrics.spansOrphaned( exporter.expirePending( maxDuration ) );
+            }
+            final Instant oldest = Instant.now().minus( maxDuration );
+            unsampled.values().removeIf( started -> started.isBefore( oldest ) );
             collectors.forEach( ( id, collector ) -> {
                 if ( collector.runningLongerThan( maxDuration ) )
                 {
@@ -134,13 +396,7 @@ public final class TraceHandler
                         "Stopping event tracing (Sampling ID: " + id + ") running for more than " + maxDuration.toMinutes() + " minutes." );
                     unregister( id );
                     collector.shutdown();
-                }
-                else if ( collector.size() >= DEFAULT_MAX_REQUESTS )
-                {
-                    LOG.info(
-                        "Stopping event tracing (Sampling ID: " + id + "), more than " + DEFAULT_MAX_REQUESTS + " requests processed." );
-                    unregister( id );
-                    collector.shutdown();
+                    metrics.autoStopped();
                 }
             } );
         }
@@ -150,14 +406,341 @@ public final class TraceHandler
         }
     }
 
+    private void sampleContention()
+    {
+        try
+        {
+            contentionTracker.sample();
+        }
+        catch ( Throwable t )
+        {
+            LOG.error( "Exception in lock contention sampling ", t );
+        }
+    }
+
+    /**
+     * Updates tracing, lock contention tracking and export after collectors are registered or removed.
+     */
+    private synchronized void collectorsChanged()
+    {
+        updateTracing();
+        updateContentionTracking();
+        if ( collectors.isEmpty() )
+        {
+            unsampled.clear();
+        }
+        if ( exporter != null )
+        {
+            // triggered captures are written to files and not exported
+            exporting = collectors.values().stream().anyMatch( TraceCollector::isRetainingTrees );
+            if ( !exporting )
+            {
+                exporter.clearPending();
+            }
+        }
+    }
+
+    /**
+     * Enables tracing in XP while any collector is registered, and disables it when the last one is removed, unless tracing was already
+     * enabled when the first collector was registered.
+     */
+    private void updateTracing()
+    {
+        final TraceManager traceManager = this.traceManager;
+        if ( traceManager == null )
+        {
+            return;
+        }
+        if ( !collectors.isEmpty() && !Tracer.isEnabled() )
+        {
+            traceManager.enable( true );
+            tracingEnabled = true;
+        }
+        else if ( collectors.isEmpty() && tracingEnabled )
+        {
+            traceManager.enable( false );
+            tracingEnabled = false;
+        }
+    }
+
+    /**
+     * Turns lock contention tracking on while at least one collector is capturing, as contention monitoring has a cost for every
+     * thread in the JVM.
+     */
+    private synchronized void updateContentionTracking()
+    {
+        if ( contentionTracker == null )
+        {
+            return;
+        }
+        if ( !collectors.isEmpty() && contentionFuture == null )
+        {
+            contentionTracker.enable();
+            contentionFuture = scheduler.scheduleAtFixedRate( this::sampleContention, LockContentionTracker.SAMPLE_INTERVAL_MILLIS,
+                                                              LockContentionTracker.SAMPLE_INTERVAL_MILLIS, TimeUnit.MILLISECONDS );
+        }
+        else if ( collectors.isEmpty() && contentionFuture != null )
+        {
+            contentionFuture.cancel( false );
+            contentionFuture = null;
+            contentionTracker.disable();
+        }
+    }
+
+    private void evaluateTriggers()
+    {
+        try
+        {
+            final long now = Instant.now().getEpochSecond();
+            requestMeters.sample( captureTrigger, now - 1 );
+            final String rule = captureTrigger.evaluate( now );
+            if ( rule != null )
+            {
+                startCapture( rule );
+            }
+        }
+        catch ( Throwable t )
+        {
+            LOG.error( "Exception in Live Trace capture rules ", t );
+        }
+    }
+
+    /**
+     * Starts a capture for a rule that fired, unless a capture is running, the previous one ended less than the cooldown ago, or the
+     * daily budget of captures is used up.
+     */
+    private synchronized void startCapture( final String rule )
+        throws IOException
+    {
+        final TraceManager traceManager = this.traceManager;
+        final Instant now = Instant.now();
+        if ( capture != null || traceManager == null || now.isBefore( lastCaptureEnd.plus( captureCooldown ) ) )
+        {
+            return;
+        }
+        final LocalDate today = LocalDate.now( ZoneOffset.UTC );
+        if ( !today.equals( captureDay ) )
+        {
+            captureDay = today;
+            capturesToday = 0;
+        }
+        if ( capturesToday >= captureDailyLimit )
+        {
+            return;
+        }
+
+        final Path file = captureDir.resolve(
+            TriggeredCapture.FILE_PREFIX + CAPTURE_FILE_TIME.format( now.atZone( ZoneOffset.UTC ) ) + TriggeredCapture.FILE_SUFFIX );
+        final TriggeredCapture writer;
+        try
+        {
+            Files.createDirectories( captureDir );
+            TriggeredCapture.prune( captureDir, captureMaxFiles - 1 );
+            writer = new TriggeredCapture( file, rule, maxBytes, metrics );
+        }
+        catch ( IOException e )
+        {
+            // wait for the cooldown before trying again, rather than on every evaluation while the rule keeps firing
+            lastCaptureEnd = now;
+            throw e;
+        }
+        capturesToday++;
+        final TraceCollector collector = new TraceCollector();
+        collector.setSessionId( CAPTURE_SESSION_ID );
+        collector.setOnTrace( writer );
+        collector.setOnTree( writer::writeTree );
+        collector.setRetainTrees( false );
+        register( collector );
+        capture = collector;
+        scheduler.schedule( this::stopCapture, captureSeconds, TimeUnit.SECONDS );
+        LOG.info( "Live Trace capture rule fired (" + rule + "), capturing requests for " + captureSeconds + " seconds to " + file + "." );
+    }
+
+    private synchronized void stopCapture()
+    {
+        if ( capture == null )
+        {
+            return;
+        }
+        final TraceCollector collector = capture;
+        capture = null;
+        lastCaptureEnd = Instant.now();
+        collectors.remove( collector.getId() );
+        stoppedCollectors.remove( collector.getId() );
+        collectorsChanged();
+        collector.shutdown();
+        collector.close();
+    }
+
+    private void updateGovernor()
+    {
+        try
+        {
+            final boolean changed = governor.update();
+            if ( !collectors.isEmpty() )
+            {
+                final int requestsPerSecond = requestRate.requestsPerSecond();
+                collectors.values().forEach( collector -> collector.recordTick( requestsPerSecond ) );
+            }
+            if ( changed && !collectors.isEmpty() )
+            {
+                LOG.info( "Live Trace sampling ratio " + Math.round( governor.getSamplingRatio() * 100 ) + "%" +
+                              ( governor.isPaused() ? ", capture paused due to memory pressure." : "." ) );
+                final GovernorMapper status = new GovernorMapper( governor );
+                collectors.values().forEach( collector -> collector.sendMessage( status ) );
+            }
+            if ( changed && governor.isPaused() )
+            {
+                collectors.values().forEach( TraceCollector::clearPending );
+                if ( exporter != null )
+                {
+                    exporter.clearPending();
+                }
+            }
+        }
+        catch ( Throwable t )
+        {
+            LOG.error( "Exception in event tracing overhead governor ", t );
+        }
+    }
+
+    public synchronized void subscribeRequestRate( final String sessionId, final Consumer<Object> onData )
+    {
+        if ( rateSubscribers.add( sessionId, onData ) )
+        {
+            lastBroadcast = null;
+            broadcastFuture = scheduler.scheduleAtFixedRate( this::broadcastRequestRate, 0, 1, TimeUnit.SECONDS );
+        }
+        else if ( lastBroadcast != null )
+        {
+            rateSubscribers.send( sessionId, lastBroadcast );
+        }
+    }
+
+    public synchronized void unsubscribeRequestRate( final String sessionId )
+    {
+        if ( rateSubscribers.remove( sessionId ) )
+        {
+            broadcastFuture.cancel( false );
+            broadcastFuture = null;
+        }
+    }
+
+    private void broadcastRequestRate()
+    {
+        try
+        {
+            final long start = System.nanoTime();
+            final String message =
+                JsonMapGenerator.toJson( new RequestRateMapper( requestRate.requestsPerSecond(), collectors.values(), governor ) );
+            metrics.serialized( System.nanoTime() - start, Utf8.encodedLength( message ) );
+            if ( !message.equals( lastBroadcast ) )
+            {
+                lastBroadcast = message;
+                final long sendStart = System.nanoTime();
+                rateSubscribers.sendToAll( message );
+                metrics.sent( System.nanoTime() - sendStart );
+            }
+        }
+        catch ( Throwable t )
+        {
+            LOG.error( "Exception in request rate broadcast ", t );
+        }
+    }
+
     public void register( final TraceCollector collector )
     {
+        collector.setGovernor( governor );
+        collector.setMaxBytes( maxBytes );
+        collector.setRepeatThreshold( repeatThreshold );
+        if ( slabPool != null && collector.isRetainingTrees() )
+        {
+            collector.setArena( new TraceArena( slabPool ) );
+        }
+        collector.setMetrics( metrics );
         collectors.put( collector.getId(), collector );
+        collectorsChanged();
     }
 
+    @Reference(cardinality = ReferenceCardinality.OPTIONAL, policy = ReferencePolicy.DYNAMIC)
+    public void setTraceManager( final TraceManager traceManager )
+    {
+        this.traceManager = traceManager;
+    }
+
+    public void unsetTraceManager( final TraceManager traceManager )
+    {
+        this.traceManager = null;
+    }
+
+    public TraceCollector getCollector( final String collectorId )
+    {
+        final TraceCollector collector = collectors.get( collectorId );
+        return collector != null ? collector : stoppedCollectors.get( collectorId );
+    }
+
+    /**
+     * Stops capturing into a collector. The trees retained by the collector are kept until its session is released.
+     */
     public TraceCollector unregister( final String collectorId )
     {
-        return collectors.remove( collectorId );
+        final TraceCollector collector = collectors.remove( collectorId );
+        if ( collector != null )
+        {
+            stoppedCollectors.put( collectorId, collector );
+            collectorsChanged();
+        }
+        return collector;
+    }
+
+    public void release( final String sessionId )
+    {
+        collectors.values().removeIf( collector -> {
+            if ( sessionId.equals( collector.getSessionId() ) )
+            {
+                collector.shutdown();
+                collector.close();
+                return true;
+            }
+            return false;
+        } );
+        collectorsChanged();
+        stoppedCollectors.values().removeIf( collector -> {
+            if ( sessionId.equals( collector.getSessionId() ) )
+            {
+                collector.close();
+                return true;
+            }
+            return false;
+        } );
+    }
+
+    /**
+     * Number of trace trees waiting to be assembled by the collectors.
+     */
+    public int getQueueDepth()
+    {
+        int depth = 0;
+        for ( TraceCollector collector : collectors.values() )
+        {
+            depth += collector.getQueueDepth();
+        }
+        return depth;
+    }
+
+    double getOverhead()
+    {
+        return governor.getOverhead();
+    }
+
+    double getEventCostNanos()
+    {
+        return governor.getEventCostNanos();
+    }
+
+    double getTreeCostNanos()
+    {
+        return governor.getTreeCostNanos();
     }
 
     public int getRequestsPerSecond()
@@ -165,10 +748,8 @@ public final class TraceHandler
         return requestRate.requestsPerSecond();
     }
 
-    public Map<String, Integer> getSamplingRequestCount()
+    public MapSerializable getSamplingRequestCount()
     {
-        final Map<String, Integer> samplingCount = new HashMap<>();
-        collectors.forEach( ( id, collector ) -> samplingCount.put( id, collector.size() ) );
-        return samplingCount;
+        return new SamplingCountMapper( new ArrayList<>( collectors.values() ) );
     }
 }
@@ -23,6 +23,11 @@ public final class TraceMapper
 
     @Override
     public void serialize( final MapGenerator gen )
+    {
+        serialize( gen, trace );
+    }
+
+    static void serialize( final MapGenerator gen, final Trace trace )
     {
         gen.value( "id", trace.getId() );
         gen.value( "parent", trace.getParentId() );
@@ -40,7 +45,7 @@ public final class TraceMapper
         gen.end();
     }
 
-    private void serializeCustomFields( final MapGenerator gen, final Map<String, Object> values )
+    private static void serializeCustomFields( final MapGenerator gen, final Map<String, Object> values )
     {
         for ( String key : values.keySet() )
         {
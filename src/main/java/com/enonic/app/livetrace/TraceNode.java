@@ -0,0 +1,141 @@
+package com.enonic.app.livetrace;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.enonic.xp.trace.Trace;
+
+/**
+ * Node of a trace tree, assembled as the traces end.
+ * <p>
+ * Children end before their parent, so a node may be created as a placeholder for a parent that has not ended yet, and get its
+ * trace later. Children are kept ordered by start time; as they mostly end in the order they started, insertion from the end of the
+ * list is usually a single comparison.
+ */
+final class TraceNode
+{
+    private final List<TraceNode> children;
+
+    private Trace trace;
+
+    private List<RepeatDetector.RepeatFlag> repeats;
+
+    private long selfMicros;
+
+    private boolean critical;
+
+    private LockContention contention;
+
+    TraceNode()
+    {
+        this.children = new ArrayList<>();
+    }
+
+    void addChild( final TraceNode child )
+    {
+        int index = children.size();
+        while ( index > 0 && children.get( index - 1 ).startsAfter( child ) )
+        {
+            index--;
+        }
+        children.add( index, child );
+    }
+
+    /**
+     * Merges the children of a tree sent earlier into a new node, used for task trees that are sent as their children end.
+     */
+    static TraceNode merge( final TraceNode previous, final TraceNode latest )
+    {
+        final TraceNode merged = new TraceNode();
+        merged.setTrace( latest.trace );
+        previous.children.forEach( merged::addChild );
+        latest.children.forEach( merged::addChild );
+        return merged;
+    }
+
+    private boolean startsAfter( final TraceNode other )
+    {
+        return trace != null && other.trace != null && trace.getStartTime().isAfter( other.trace.getStartTime() );
+    }
+
+    public void collect( final List<Trace> traces )
+    {
+        traces.add( trace );
+        for ( TraceNode child : children )
+        {
+            child.collect( traces );
+        }
+    }
+
+    /**
+     * Number of traces in this subtree, not counting placeholders.
+     */
+    public int countTraces()
+    {
+        int count = trace == null ? 0 : 1;
+        for ( TraceNode child : children )
+        {
+            count += child.countTraces();
+        }
+        return count;
+    }
+
+    public Trace getTrace()
+    {
+        return trace;
+    }
+
+    void setTrace( final Trace trace )
+    {
+        this.trace = trace;
+    }
+
+    public List<TraceNode> getChildren()
+    {
+        return children;
+    }
+
+    public List<RepeatDetector.RepeatFlag> getRepeats()
+    {
+        return repeats;
+    }
+
+    void addRepeat( final RepeatDetector.RepeatFlag repeat )
+    {
+        if ( repeats == null )
+        {
+            repeats = new ArrayList<>();
+        }
+        repeats.add( repeat );
+    }
+
+    public long getSelfMicros()
+    {
+        return selfMicros;
+    }
+
+    void setSelfMicros( final long selfMicros )
+    {
+        this.selfMicros = selfMicros;
+    }
+
+    public boolean isCritical()
+    {
+        return critical;
+    }
+
+    void setCritical( final boolean critical )
+    {
+        this.critical = critical;
+    }
+
+    public LockContention getContention()
+    {
+        return contention;
+    }
+
+    void setContention( final LockContention contention )
+    {
+        this.contention = contention;
+    }
+}
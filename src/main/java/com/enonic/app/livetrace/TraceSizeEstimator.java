@@ -0,0 +1,68 @@
+package com.enonic.app.livetrace;
+
+import java.util.List;
+import java.util.Map;
+
+import com.enonic.xp.trace.Trace;
+
+/**
+ * Rough estimate of the memory retained by a trace, including its data map, as held by the server and the browser.
+ */
+final class TraceSizeEstimator
+{
+    private static final int TRACE_OVERHEAD = 120;
+
+    private static final int ENTRY_OVERHEAD = 32;
+
+    private static final int STRING_OVERHEAD = 40;
+
+    private static final int BOXED_VALUE = 16;
+
+    private static final int LIST_OVERHEAD = 40;
+
+    private TraceSizeEstimator()
+    {
+    }
+
+    public static long estimate( final Trace trace )
+    {
+        long size = TRACE_OVERHEAD + estimateString( trace.getId() ) + estimateString( trace.getParentId() ) +
+            estimateString( trace.getName() );
+        for ( Map.Entry<String, Object> entry : trace.entrySet() )
+        {
+            size += ENTRY_OVERHEAD + estimateString( entry.getKey() ) + estimateValue( entry.getValue() );
+        }
+        return size;
+    }
+
+    private static long estimateValue( final Object value )
+    {
+        if ( value == null )
+        {
+            return 0;
+        }
+        if ( value instanceof String )
+        {
+            return estimateString( (String) value );
+        }
+        if ( value instanceof List )
+        {
+            long size = LIST_OVERHEAD;
+            for ( Object item : (List<?>) value )
+            {
+                size += 8 + estimateValue( item );
+            }
+            return size;
+        }
+        if ( value instanceof Number || value instanceof Boolean )
+        {
+            return BOXED_VALUE;
+        }
+        return estimateString( value.toString() );
+    }
+
+    private static long estimateString( final String value )
+    {
+        return value == null ? 0 : STRING_OVERHEAD + value.length();
+    }
+}
@@ -0,0 +1,50 @@
+package com.enonic.app.livetrace;
+
+import java.util.List;
+
+import com.enonic.xp.script.serializer.MapGenerator;
+import com.enonic.xp.script.serializer.MapSerializable;
+import com.enonic.xp.trace.Trace;
+
+/**
+ * Summary of a trace tree sent while tracing: the root trace, the number of traces below it, the repeated calls found in the tree
+ * and the lock contention of the request thread, if tracked.
+ * The full tree is fetched with {@link TraceTreeMapper} when needed.
+ */
+final class TraceSummaryMapper
+    implements MapSerializable
+{
+    private final TraceNode root;
+
+    private final int size;
+
+    private final List<RepeatDetector.RepeatFlag> repeats;
+
+    TraceSummaryMapper( final TraceNode root, final int size, final List<RepeatDetector.RepeatFlag> repeats )
+    {
+        this.root = root;
+        this.size = size;
+        this.repeats = repeats;
+    }
+
+    @Override
+    public void serialize( final MapGenerator gen )
+    {
+        final Trace trace = root.getTrace();
+        gen.array( "traces" );
+        gen.map();
+        TraceMapper.serialize( gen, trace );
+        gen.value( "spans", size - 1 );
+        if ( !repeats.isEmpty() )
+        {
+            TraceTreeMapper.serializeRepeats( gen, repeats );
+        }
+        if ( root.getContention() != null && !root.getContention().isEmpty() )
+        {
+            root.getContention().serialize( gen );
+        }
+        gen.end();
+        gen.end();
+        gen.value( "maxDuration", trace.getDuration().toMillis() );
+    }
+}
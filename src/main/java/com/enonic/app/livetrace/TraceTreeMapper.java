@@ -0,0 +1,83 @@
+package com.enonic.app.livetrace;
+
+import java.util.List;
+
+import com.enonic.xp.script.serializer.MapGenerator;
+import com.enonic.xp.script.serializer.MapSerializable;
+import com.enonic.xp.trace.Trace;
+
+final class TraceTreeMapper
+    implements MapSerializable
+{
+    private final String traceId;
+
+    private final TraceNode root;
+
+    TraceTreeMapper( final String traceId, final TraceNode root )
+    {
+        this.traceId = traceId;
+        this.root = root;
+    }
+
+    @Override
+    public void serialize( final MapGenerator gen )
+    {
+        gen.value( "traceId", traceId );
+        if ( root == null )
+        {
+            gen.value( "expired", true );
+            return;
+        }
+        gen.map( "tree" );
+        serializeNode( gen, root );
+        gen.end();
+    }
+
+    private static void serialize( final MapGenerator gen, final TraceNode node )
+    {
+        gen.map();
+        serializeNode( gen, node );
+        gen.end();
+    }
+
+    static void serializeNode( final MapGenerator gen, final TraceNode node )
+    {
+        final Trace trace = node.getTrace();
+
+        TraceMapper.serialize( gen, trace );
+        gen.value( "selfTime", node.getSelfMicros() / 1000.0 );
+        gen.value( "critical", node.isCritical() );
+
+        if ( node.getRepeats() != null )
+        {
+            serializeRepeats( gen, node.getRepeats() );
+        }
+
+        if ( !node.getChildren().isEmpty() )
+        {
+            gen.array( "children" );
+            for ( TraceNode child : node.getChildren() )
+            {
+                serialize( gen, child );
+            }
+            gen.end();
+        }
+    }
+
+    static void serializeRepeats( final MapGenerator gen, final List<RepeatDetector.RepeatFlag> repeats )
+    {
+        gen.array( "repeats" );
+        for ( RepeatDetector.RepeatFlag flag : repeats )
+        {
+            gen.map();
+            gen.value( "name", flag.getName() );
+            gen.value( "shape", flag.getShape() );
+            gen.value( "count", flag.getCount() );
+            gen.value( "identical", flag.isIdentical() );
+            gen.value( "totalTime", flag.getTotalMicros() / 1000.0 );
+            gen.value( "avoidableTime", flag.getAvoidableMicros() / 1000.0 );
+            gen.end();
+        }
+        gen.end();
+    }
+}
@@ -0,0 +1,91 @@
+package com.enonic.app.livetrace;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import com.enonic.xp.trace.Trace;
+
+/**
+ * Computes the self time of every node in a trace tree and the critical path from the root.
+ * <p>
+ * The self time of a node is its duration minus the time covered by its children. Overlapping children, e.g. concurrent HTTP requests,
+ * are only counted once. The critical path is the chain of children that determines when a node finishes: starting from the end of
+ * the node, the child that ends last is on the path, then the child that ends last before that one started, and so on.
+ */
+final class TreeAnalyzer
+{
+    private static final Comparator<TraceNode> BY_END_DESC = Comparator.comparingLong( ( TraceNode n ) -> endMicros( n.getTrace() ) ).
+        reversed();
+
+    private TreeAnalyzer()
+    {
+    }
+
+    public static void analyze( final TraceNode root )
+    {
+        computeSelfTime( root );
+        markCriticalPath( root );
+    }
+
+    private static void computeSelfTime( final TraceNode node )
+    {
+        final Trace trace = node.getTrace();
+        final long start = startMicros( trace );
+        final long end = endMicros( trace );
+
+        long covered = 0;
+        long coveredUntil = start;
+        for ( TraceNode child : node.getChildren() )
+        {
+            computeSelfTime( child );
+            final long childStart = Math.max( coveredUntil, startMicros( child.getTrace() ) );
+            final long childEnd = Math.min( end, endMicros( child.getTrace() ) );
+            if ( childEnd > childStart )
+            {
+                covered += childEnd - childStart;
+                coveredUntil = childEnd;
+            }
+        }
+        node.setSelfMicros( Math.max( 0, end - start - covered ) );
+    }
+
+    private static void markCriticalPath( final TraceNode node )
+    {
+        node.setCritical( true );
+        final List<TraceNode> children = node.getChildren();
+        if ( children.isEmpty() )
+        {
+            return;
+        }
+        final List<TraceNode> byEnd = new ArrayList<>( children );
+        byEnd.sort( BY_END_DESC );
+
+        long cursor = endMicros( node.getTrace() );
+        for ( TraceNode child : byEnd )
+        {
+            if ( endMicros( child.getTrace() ) <= cursor )
+            {
+                markCriticalPath( child );
+                cursor = startMicros( child.getTrace() );
+            }
+        }
+    }
+
+    private static long startMicros( final Trace trace )
+    {
+        return toMicros( trace.getStartTime() );
+    }
+
+    private static long endMicros( final Trace trace )
+    {
+        final Instant end = trace.getEndTime();
+        return end == null ? startMicros( trace ) + trace.getDuration().toNanos() / 1000 : toMicros( end );
+    }
+
+    private static long toMicros( final Instant instant )
+    {
+        return instant.getEpochSecond() * 1_000_000 + instant.getNano() / 1000;
+    }
+}
@@ -0,0 +1,173 @@
+package com.enonic.app.livetrace;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.google.common.io.CountingOutputStream;
+
+import com.enonic.xp.script.serializer.MapSerializable;
+
+/**
+ * Writes the trees of a capture started by a {@link CaptureTrigger} to a file, one JSON object per line.
+ * <p>
+ * The first line describes the capture. Trees are no longer written once the file reaches its size limit. File names start with the
+ * capture time, so the oldest captures can be pruned by name.
+ */
+final class TriggeredCapture
+    implements Consumer<Object>
+{
+    private static final Logger LOG = LoggerFactory.getLogger( TriggeredCapture.class );
+
+    static final String FILE_PREFIX = "capture-";
+
+    static final String FILE_SUFFIX = ".jsonl";
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private final Path file;
+
+    private final long maxBytes;
+
+    private final CountingOutputStream out;
+
+    private final PipelineMetrics metrics;
+
+    private int trees;
+
+    private boolean closed;
+
+    private boolean truncated;
+
+    TriggeredCapture( final Path file, final String rule, final long maxBytes, final PipelineMetrics metrics )
+        throws IOException
+    {
+        this.file = file;
+        this.maxBytes = maxBytes;
+        this.metrics = metrics;
+        this.out = new CountingOutputStream( new BufferedOutputStream( Files.newOutputStream( file ) ) );
+        try
+        {
+            write( gen -> {
+                gen.map( "capture" );
+                gen.value( "rule", rule );
+                gen.value( "started", Instant.now().toString() );
+                gen.end();
+            } );
+        }
+        catch ( IOException e )
+        {
+            try
+            {
+                out.close();
+            }
+            catch ( IOException closeException )
+            {
+                e.addSuppressed( closeException );
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Deletes the oldest capture files in the directory, keeping the given number of the most recent ones.
+     */
+    static void prune( final Path dir, final int keep )
+        throws IOException
+    {
+        final List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream( dir, FILE_PREFIX + "*" + FILE_SUFFIX ))
+        {
+            stream.forEach( files::add );
+        }
+        files.sort( Comparator.comparing( path -> path.getFileName().toString() ) );
+        for ( Path old : files.subList( 0, Math.max( 0, files.size() - keep ) ) )
+        {
+            try
+            {
+                Files.deleteIfExists( old );
+                LOG.info( "Deleted Live Trace capture " + old + "." );
+            }
+            catch ( IOException e )
+            {
+                LOG.warn( "Could not delete Live Trace capture " + old + ": " + e.getMessage() );
+            }
+        }
+    }
+
+    public synchronized void writeTree( final MapSerializable tree )
+    {
+        if ( closed || truncated )
+        {
+            return;
+        }
+        if ( out.getCount() >= maxBytes )
+        {
+            truncated = true;
+            LOG.info( "Live Trace capture " + file.getFileName() + " reached its size limit, further requests are not stored." );
+            return;
+        }
+        try
+        {
+            write( tree );
+            trees++;
+        }
+        catch ( IOException e )
+        {
+            LOG.error( "Could not write Live Trace capture " + file, e );
+            close();
+        }
+    }
+
+    @Override
+    public void accept( final Object message )
+    {
+        if ( "stop".equals( message ) )
+        {
+            close();
+        }
+    }
+
+    public synchronized void close()
+    {
+        if ( closed )
+        {
+            return;
+        }
+        closed = true;
+        try
+        {
+            out.close();
+            LOG.info( "Live Trace capture " + file + " completed with " + trees + " requests." );
+        }
+        catch ( IOException e )
+        {
+            LOG.error( "Could not close Live Trace capture " + file, e );
+        }
+    }
+
+    private void write( final MapSerializable value )
+        throws IOException
+    {
+        final long start = System.nanoTime();
+        final long startBytes = out.getCount();
+        final JsonGenerator json = JSON_FACTORY.createGenerator( out );
+        final JsonMapGenerator gen = new JsonMapGenerator( json );
+        value.serialize( gen );
+        gen.close();
+        out.write( '\n' );
+        metrics.serialized( System.nanoTime() - start, out.getCount() - startBytes );
+    }
+}
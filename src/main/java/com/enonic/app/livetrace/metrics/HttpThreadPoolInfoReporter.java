@@ -16,6 +16,8 @@ import com.enonic.xp.status.StatusReporter;
 @Component(immediate = true, service = {HttpThreadPoolInfoReporter.class})
 public class HttpThreadPoolInfoReporter
 {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
     private StatusReporter jsonReporter;
 
     public HttpThreadPoolInfoReporter()
@@ -32,18 +34,26 @@ public class HttpThreadPoolInfoReporter
     }
 
     public int getThreadCount()
+    {
+        final JsonNode json = report();
+        final JsonNode threads = json != null ? json.get( "threads" ) : null;
+        return threads != null ? threads.asInt() : 0;
+    }
+
+    /**
+     * Returns the state of the HTTP thread pool as reported by XP, or null if the reporter is not available.
+     */
+    public JsonNode report()
     {
         if ( jsonReporter == null )
         {
-            return 0;
+            return null;
         }
         try
         {
             final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
             jsonReporter.report( outputStream );
-            final JsonNode json = new ObjectMapper().reader().readTree( outputStream.toByteArray() );
-            final JsonNode threads = json.get( "threads" );
-            return threads != null ? threads.asInt() : 0;
+            return MAPPER.reader().readTree( outputStream.toByteArray() );
         }
         catch ( IOException e )
         {
@@ -0,0 +1,195 @@
+package com.enonic.app.livetrace.metrics;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.component.annotations.Reference;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+
+/**
+ * Samples the state of the HTTP thread pool several times per second into a ring buffer, so that short bursts of pool exhaustion are
+ * visible in the dashboard, which is only updated every few seconds.
+ * <p>
+ * The Jetty thread pool meters are used when registered in Micrometer, otherwise the thread pool status reported by XP. Sampling only
+ * runs while there are dashboards open.
+ */
+@Component(immediate = true, service = HttpThreadPoolSampler.class)
+public final class HttpThreadPoolSampler
+{
+    private static final Logger LOG = LoggerFactory.getLogger( HttpThreadPoolSampler.class );
+
+    private static final long SAMPLE_INTERVAL_MILLIS = 200;
+
+    private static final int CAPACITY = 512;
+
+    private final ScheduledExecutorService scheduler;
+
+    private final long[] times;
+
+    private final int[] busy;
+
+    private final int[] idle;
+
+    private final int[] queue;
+
+    private final int[] max;
+
+    private final boolean[] saturated;
+
+    private long sampleCount;
+
+    private int users;
+
+    private ScheduledFuture<?> sampleFuture;
+
+    private HttpThreadPoolInfoReporter threadPoolInfoReporter;
+
+    private Gauge busyGauge;
+
+    private Gauge currentGauge;
+
+    private Gauge jobsGauge;
+
+    private Gauge maxGauge;
+
+    public HttpThreadPoolSampler()
+    {
+        this.scheduler = Executors.newSingleThreadScheduledExecutor();
+        this.times = new long[CAPACITY];
+        this.busy = new int[CAPACITY];
+        this.idle = new int[CAPACITY];
+        this.queue = new int[CAPACITY];
+        this.max = new int[CAPACITY];
+        this.saturated = new boolean[CAPACITY];
+    }
+
+    @Reference
+    public void setThreadPoolInfoReporter( final HttpThreadPoolInfoReporter threadPoolInfoReporter )
+    {
+        this.threadPoolInfoReporter = threadPoolInfoReporter;
+    }
+
+    @Deactivate
+    public void deactivate()
+    {
+        scheduler.shutdownNow();
+    }
+
+    public synchronized void start()
+    {
+        if ( users++ == 0 )
+        {
+            busyGauge = Metrics.globalRegistry.find( "jetty.threads.busy" ).gauge();
+            currentGauge = Metrics.globalRegistry.find( "jetty.threads.current" ).gauge();
+            jobsGauge = Metrics.globalRegistry.find( "jetty.threads.jobs" ).gauge();
+            maxGauge = Metrics.globalRegistry.find( "jetty.threads.config.max" ).gauge();
+            sampleFuture = scheduler.scheduleAtFixedRate( this::sample, 0, SAMPLE_INTERVAL_MILLIS, TimeUnit.MILLISECONDS );
+        }
+    }
+
+    public synchronized void stop()
+    {
+        if ( users > 0 && --users == 0 )
+        {
+            sampleFuture.cancel( false );
+        }
+    }
+
+    private void sample()
+    {
+        try
+        {
+            final int sampleBusy;
+            final int sampleIdle;
+            final int sampleMax;
+            if ( busyGauge != null && currentGauge != null && maxGauge != null )
+            {
+                final int current = (int) currentGauge.value();
+                sampleBusy = (int) busyGauge.value();
+                sampleIdle = Math.max( 0, current - sampleBusy );
+                sampleMax = (int) maxGauge.value();
+            }
+            else
+            {
+                final JsonNode report = threadPoolInfoReporter.report();
+                if ( report == null )
+                {
+                    return;
+                }
+                final int threads = intValue( report, "threads" );
+                sampleIdle = intValue( report, "idleThreads" );
+                sampleBusy = Math.max( 0, threads - sampleIdle );
+                sampleMax = intValue( report, "maxThreads" );
+            }
+            final int sampleQueue = jobsGauge != null ? (int) jobsGauge.value() : -1;
+
+            synchronized ( this )
+            {
+                final int index = (int) ( sampleCount % CAPACITY );
+                times[index] = System.currentTimeMillis();
+                busy[index] = sampleBusy;
+                idle[index] = sampleIdle;
+                queue[index] = sampleQueue;
+                max[index] = sampleMax;
+                saturated[index] = ( sampleMax > 0 && sampleBusy >= sampleMax ) || ( sampleQueue > 0 && sampleIdle == 0 );
+                sampleCount++;
+            }
+        }
+        catch ( Throwable t )
+        {
+            LOG.error( "Exception sampling HTTP thread pool", t );
+        }
+    }
+
+    /**
+     * Summarizes the samples taken after the given time.
+     */
+    public synchronized ThreadPoolWindow window( final long sinceMillis )
+    {
+        final ThreadPoolWindow window = new ThreadPoolWindow();
+        final long first = Math.max( 0, sampleCount - CAPACITY );
+        long saturationEnd = -1;
+        int saturationQueue = 0;
+        for ( long i = sampleCount - 1; i >= first; i-- )
+        {
+            final int index = (int) ( i % CAPACITY );
+            if ( times[index] <= sinceMillis )
+            {
+                break;
+            }
+            window.add( busy[index], idle[index], queue[index], max[index] );
+
+            if ( saturated[index] )
+            {
+                if ( saturationEnd < 0 )
+                {
+                    saturationEnd = times[index];
+                    saturationQueue = 0;
+                }
+                saturationQueue = Math.max( saturationQueue, queue[index] );
+                if ( i == first || !saturated[(int) ( ( i - 1 ) % CAPACITY )] || times[(int) ( ( i - 1 ) % CAPACITY )] <= sinceMillis )
+                {
+                    window.addSaturation( times[index], saturationEnd, saturationQueue );
+                    saturationEnd = -1;
+                }
+            }
+        }
+        return window;
+    }
+
+    private static int intValue( final JsonNode json, final String field )
+    {
+        final JsonNode value = json.get( field );
+        return value != null ? value.asInt() : 0;
+    }
+}
@@ -30,18 +30,24 @@ public class MetricsEmitter
 
     private final HttpThreadPoolInfoReporter threadPoolInfoReporter;
 
+    private final HttpThreadPoolSampler threadPoolSampler;
+
     private final Consumer<Object> onData;
 
     private Instant lastMeasureTime;
 
     private long lastReqCount;
 
+    private PipelineSnapshot lastPipeline;
+
     public MetricsEmitter( final String sessionId, final HttpThreadPoolInfoReporter threadPoolInfoReporter,
-                           final ClusterInfoReporter clusterInfoReporter, final Consumer<Object> onData )
+                           final HttpThreadPoolSampler threadPoolSampler, final ClusterInfoReporter clusterInfoReporter,
+                           final Consumer<Object> onData )
     {
         this.sessionId = sessionId;
         this.clusterInfoReporter = clusterInfoReporter;
         this.threadPoolInfoReporter = threadPoolInfoReporter;
+        this.threadPoolSampler = threadPoolSampler;
         this.onData = onData;
         this.scheduler = Executors.newSingleThreadScheduledExecutor();
     }
@@ -49,12 +55,18 @@ public class MetricsEmitter
     public void start()
     {
         sendInitialData();
+        threadPoolSampler.start();
         scheduler.scheduleAtFixedRate( this::sendData, 0, 3, TimeUnit.SECONDS );
     }
 
     public void stop()
     {
+        if ( scheduler.isShutdown() )
+        {
+            return;
+        }
         scheduler.shutdown();
+        threadPoolSampler.stop();
     }
 
     private void sendInitialData()
@@ -78,6 +90,9 @@ public class MetricsEmitter
         final Timer requestTimer = Metrics.globalRegistry.find( REQUEST_TIMER_NAME ).timer();
         final long reqCount = requestTimer != null ? requestTimer.count() : 0;
 
+        final ThreadPoolWindow threadPool =
+            threadPoolSampler.window( lastMeasureTime != null ? lastMeasureTime.toEpochMilli() : now.toEpochMilli() - 3000 );
+
         double reqSec = 0;
         if ( lastMeasureTime != null )
         {
@@ -89,8 +104,16 @@ public class MetricsEmitter
         lastReqCount = reqCount;
         lastMeasureTime = now;
 
+        final PipelineSnapshot pipeline = PipelineSnapshot.read( now.toEpochMilli() );
+        final PipelineSnapshot previousPipeline = lastPipeline;
+        lastPipeline = pipeline;
+
         final MetricsMapper mem =
-            new MetricsMapper( now, bean, memoryPools, getProcessCpuLoad(), totalThreadCount, httpThreadCount, reqSec );
+            new MetricsMapper( now, bean, memoryPools, getProcessCpuLoad(), totalThreadCount, httpThreadCount, threadPool, reqSec );
+        if ( pipeline != null )
+        {
+            mem.setPipeline( pipeline, previousPipeline );
+        }
 
         this.onData.accept( mem );
 
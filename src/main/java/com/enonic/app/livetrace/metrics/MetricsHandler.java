@@ -14,6 +14,8 @@ public class MetricsHandler
 {
     private HttpThreadPoolInfoReporter threadPoolInfoReporter;
 
+    private HttpThreadPoolSampler threadPoolSampler;
+
     private IndexService indexService;
 
     private ConcurrentHashMap<String, MetricsEmitter> emitters;
@@ -28,7 +30,7 @@ public class MetricsHandler
     public MetricsEmitter subscribe( final String sessionId, final Consumer<Object> onData )
     {
         return emitters.computeIfAbsent( sessionId, ( sid ) -> {
-            final MetricsEmitter emitter = new MetricsEmitter( sid, threadPoolInfoReporter, clusterInfoReporter, onData );
+            final MetricsEmitter emitter = new MetricsEmitter( sid, threadPoolInfoReporter, threadPoolSampler, clusterInfoReporter, onData );
             emitter.start();
             return emitter;
         } );
@@ -53,6 +55,7 @@ public class MetricsHandler
     public void initialize( final BeanContext context )
     {
         this.threadPoolInfoReporter = context.getService( HttpThreadPoolInfoReporter.class ).get();
+        this.threadPoolSampler = context.getService( HttpThreadPoolSampler.class ).get();
         this.indexService = context.getService( IndexService.class ).get();
         this.clusterInfoReporter = context.getService( ClusterInfoReporter.class ).get();
     }
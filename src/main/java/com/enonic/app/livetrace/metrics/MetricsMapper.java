@@ -24,10 +24,17 @@ public class MetricsMapper
 
     private final int httpThreadCount;
 
+    private final ThreadPoolWindow httpThreadPool;
+
     private final double requestsPerSecond;
 
+    private PipelineSnapshot pipeline;
+
+    private PipelineSnapshot previousPipeline;
+
     public MetricsMapper( final Instant time, final MemoryMXBean memBean, final List<MemoryPoolMXBean> memoryPools,
-                          final double processCpuLoad, final int totalThreadCount, final int httpThreadCount, final double requestsPerSecond )
+                          final double processCpuLoad, final int totalThreadCount, final int httpThreadCount,
+                          final ThreadPoolWindow httpThreadPool, final double requestsPerSecond )
     {
         this.time = time;
         this.memBean = memBean;
@@ -35,9 +42,16 @@ public class MetricsMapper
         this.processCpuLoad = processCpuLoad;
         this.totalThreadCount = totalThreadCount;
         this.httpThreadCount = httpThreadCount;
+        this.httpThreadPool = httpThreadPool;
         this.requestsPerSecond = requestsPerSecond;
     }
 
+    void setPipeline( final PipelineSnapshot pipeline, final PipelineSnapshot previousPipeline )
+    {
+        this.pipeline = pipeline;
+        this.previousPipeline = previousPipeline;
+    }
+
     @Override
     public void serialize( final MapGenerator gen )
     {
@@ -64,6 +78,13 @@ public class MetricsMapper
         gen.value( "http", httpThreadCount );
         gen.end();
 
+        httpThreadPool.serialize( gen );
+
+        if ( pipeline != null )
+        {
+            pipeline.serialize( gen, previousPipeline );
+        }
+
         gen.end();
     }
 
@@ -0,0 +1,128 @@
+package com.enonic.app.livetrace.metrics;
+
+import java.util.concurrent.TimeUnit;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+
+import com.enonic.app.livetrace.PipelineMetrics;
+import com.enonic.xp.script.serializer.MapGenerator;
+
+/**
+ * Values of the Live Trace pipeline meters at a point in time. Rates and average times are calculated against the previous snapshot.
+ */
+final class PipelineSnapshot
+{
+    private final long timeMillis;
+
+    private final double ingested;
+
+    private final double filtered;
+
+    private final double queue;
+
+    private final long assemblyCount;
+
+    private final double assemblyMillis;
+
+    private final long sendCount;
+
+    private final double sendMillis;
+
+    private final long serializationCount;
+
+    private final double serializationMillis;
+
+    private final double serializationBytes;
+
+    private final double orphaned;
+
+    private final double evicted;
+
+    private final double autoStops;
+
+    private final double overhead;
+
+    private final double eventCostNanos;
+
+    private final double treeCostNanos;
+
+    private PipelineSnapshot( final long timeMillis )
+    {
+        this.timeMillis = timeMillis;
+        this.ingested = count( PipelineMetrics.EVENTS_INGESTED );
+        this.filtered = count( PipelineMetrics.EVENTS_FILTERED );
+        final Gauge queueGauge = Metrics.globalRegistry.find( PipelineMetrics.EXECUTOR_QUEUE ).gauge();
+        this.queue = queueGauge != null ? queueGauge.value() : 0;
+        final Timer assembly = Metrics.globalRegistry.find( PipelineMetrics.ASSEMBLY ).timer();
+        this.assemblyCount = assembly != null ? assembly.count() : 0;
+        this.assemblyMillis = assembly != null ? assembly.totalTime( TimeUnit.MILLISECONDS ) : 0;
+        final Timer send = Metrics.globalRegistry.find( PipelineMetrics.SEND ).timer();
+        this.sendCount = send != null ? send.count() : 0;
+        this.sendMillis = send != null ? send.totalTime( TimeUnit.MILLISECONDS ) : 0;
+        final Timer serialization = Metrics.globalRegistry.find( PipelineMetrics.SERIALIZATION ).timer();
+        this.serializationCount = serialization != null ? serialization.count() : 0;
+        this.serializationMillis = serialization != null ? serialization.totalTime( TimeUnit.MILLISECONDS ) : 0;
+        this.serializationBytes = count( PipelineMetrics.SERIALIZATION_BYTES );
+        this.orphaned = count( PipelineMetrics.SPANS_ORPHANED );
+        this.evicted = count( PipelineMetrics.SPANS_EVICTED );
+        this.autoStops = count( PipelineMetrics.AUTO_STOPS );
+        this.overhead = gauge( PipelineMetrics.OVERHEAD );
+        this.eventCostNanos = gauge( PipelineMetrics.EVENT_COST );
+        this.treeCostNanos = gauge( PipelineMetrics.TREE_COST );
+    }
+
+    /**
+     * @return the current values, or null if the pipeline meters are not registered
+     */
+    static PipelineSnapshot read( final long timeMillis )
+    {
+        if ( Metrics.globalRegistry.find( PipelineMetrics.EVENTS_INGESTED ).counter() == null )
+        {
+            return null;
+        }
+        return new PipelineSnapshot( timeMillis );
+    }
+
+    private static double count( final String name )
+    {
+        final Counter counter = Metrics.globalRegistry.find( name ).counter();
+        return counter != null ? counter.count() : 0;
+    }
+
+    private static double gauge( final String name )
+    {
+        final Gauge gauge = Metrics.globalRegistry.find( name ).gauge();
+        return gauge != null ? gauge.value() : 0;
+    }
+
+    void serialize( final MapGenerator gen, final PipelineSnapshot previous )
+    {
+        final double seconds = previous == null ? 0 : Math.max( 1, timeMillis - previous.timeMillis ) / 1000.0;
+        gen.map( "pipeline" );
+        gen.value( "eventRate", previous == null ? 0 : ( ingested - previous.ingested ) / seconds );
+        gen.value( "filteredRate", previous == null ? 0 : ( filtered - previous.filtered ) / seconds );
+        gen.value( "queue", queue );
+        gen.value( "assemblyTime",
+                   previous == null ? 0 : mean( assemblyMillis - previous.assemblyMillis, assemblyCount - previous.assemblyCount ) );
+        gen.value( "sendTime", previous == null ? 0 : mean( sendMillis - previous.sendMillis, sendCount - previous.sendCount ) );
+        gen.value( "serializationTime", previous == null
+            ? 0
+            : mean( serializationMillis - previous.serializationMillis, serializationCount - previous.serializationCount ) );
+        gen.value( "serializedBytesRate", previous == null ? 0 : ( serializationBytes - previous.serializationBytes ) / seconds );
+        gen.value( "orphanedSpans", orphaned );
+        gen.value( "evictedSpans", evicted );
+        gen.value( "autoStops", autoStops );
+        gen.value( "overhead", overhead );
+        gen.value( "eventCostMicros", eventCostNanos / 1000 );
+        gen.value( "treeCostMicros", treeCostNanos / 1000 );
+        gen.end();
+    }
+
+    private static double mean( final double totalMillis, final long count )
+    {
+        return count <= 0 ? 0 : totalMillis / count;
+    }
+}
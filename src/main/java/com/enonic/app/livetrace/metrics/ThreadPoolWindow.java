@@ -0,0 +1,71 @@
+package com.enonic.app.livetrace.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.enonic.xp.script.serializer.MapGenerator;
+
+/**
+ * Summary of the HTTP thread pool samples taken between two dashboard updates.
+ */
+public final class ThreadPoolWindow
+{
+    private final List<long[]> saturations;
+
+    private int samples;
+
+    private int busyMax;
+
+    private long busyTotal;
+
+    private int idleMin = Integer.MAX_VALUE;
+
+    private int queueMax = -1;
+
+    private int max;
+
+    ThreadPoolWindow()
+    {
+        this.saturations = new ArrayList<>();
+    }
+
+    void add( final int busy, final int idle, final int queue, final int max )
+    {
+        if ( samples == 0 )
+        {
+            this.max = max;
+        }
+        samples++;
+        busyMax = Math.max( busyMax, busy );
+        busyTotal += busy;
+        idleMin = Math.min( idleMin, idle );
+        queueMax = Math.max( queueMax, queue );
+    }
+
+    void addSaturation( final long start, final long end, final int queue )
+    {
+        saturations.add( 0, new long[]{start, end, queue} );
+    }
+
+    void serialize( final MapGenerator gen )
+    {
+        gen.map( "httpPool" );
+        gen.value( "samples", samples );
+        gen.value( "busyMax", busyMax );
+        gen.value( "busyAvg", samples == 0 ? 0 : (double) busyTotal / samples );
+        gen.value( "idleMin", samples == 0 ? 0 : idleMin );
+        gen.value( "queueMax", queueMax );
+        gen.value( "max", max );
+        gen.array( "saturation" );
+        for ( long[] saturation : saturations )
+        {
+            gen.map();
+            gen.value( "start", saturation[0] );
+            gen.value( "end", saturation[1] );
+            gen.value( "queue", saturation[2] );
+            gen.end();
+        }
+        gen.end();
+        gen.end();
+    }
+}
@@ -0,0 +1,330 @@
+package com.enonic.app.livetrace.otlp;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.enonic.xp.trace.Trace;
+
+/**
+ * Ships completed trace trees to an OTLP/HTTP receiver (e.g. http://localhost:4318/v1/traces).
+ * <p>
+ * Finished spans are kept by parent until the root of their tree ends, so every tree is exported once, with the root span, whatever
+ * the number of tracing sessions. The number of spans waiting for their root is bounded; spans over the limit are dropped, and spans
+ * whose root is never seen expire.
+ * <p>
+ * Spans are encoded when offered and kept in a bounded queue. A single sender thread drains the queue in batches bounded by size and
+ * time, and retries failed exports with exponential backoff. When the queue is full spans are dropped and counted, so a slow backend
+ * never makes the caller wait.
+ */
+public final class OtlpExporter
+{
+    private static final Logger LOG = LoggerFactory.getLogger( OtlpExporter.class );
+
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds( 10 );
+
+    private static final long INITIAL_BACKOFF_MILLIS = 500;
+
+    private static final long MAX_BACKOFF_MILLIS = 30_000;
+
+    private final URI endpoint;
+
+    private final int batchSize;
+
+    private final Duration batchTimeout;
+
+    private final int maxRetries;
+
+    private final BlockingQueue<byte[]> queue;
+
+    private final OtlpSpanEncoder encoder;
+
+    private final HttpClient httpClient;
+
+    private final ExecutorService sender;
+
+    private final AtomicLong exportedSpans;
+
+    private final AtomicLong droppedSpans;
+
+    private final AtomicLong failedBatches;
+
+    private final ConcurrentMap<String, PendingSpans> pending;
+
+    private final AtomicInteger pendingSpans;
+
+    private final int maxPendingSpans;
+
+    private volatile boolean running;
+
+    public OtlpExporter( final URI endpoint, final String serviceName, final int queueSize, final int batchSize, final Duration batchTimeout,
+                         final int maxRetries )
+    {
+        this.endpoint = endpoint;
+        this.batchSize = batchSize;
+        this.batchTimeout = batchTimeout;
+        this.maxRetries = maxRetries;
+        this.queue = new ArrayBlockingQueue<>( queueSize );
+        this.encoder = new OtlpSpanEncoder( serviceName, "com.enonic.app.livetrace" );
+        this.httpClient = HttpClient.newBuilder().connectTimeout( REQUEST_TIMEOUT ).build();
+        this.sender = Executors.newSingleThreadExecutor();
+        this.exportedSpans = new AtomicLong();
+        this.droppedSpans = new AtomicLong();
+        this.failedBatches = new AtomicLong();
+        this.pending = new ConcurrentHashMap<>();
+        this.pendingSpans = new AtomicInteger();
+        this.maxPendingSpans = queueSize * 4;
+    }
+
+    public void start()
+    {
+        running = true;
+        sender.submit( this::sendLoop );
+        LOG.info( "Live Trace exporting spans to " + endpoint );
+    }
+
+    public void shutdown()
+    {
+        running = false;
+        sender.shutdownNow();
+        clearPending();
+    }
+
+    /**
+     * Keeps a finished span until the root of its tree ends. Never blocks.
+     */
+    public void add( final Trace trace )
+    {
+        if ( !running )
+        {
+            return;
+        }
+        if ( pendingSpans.incrementAndGet() > maxPendingSpans )
+        {
+            pendingSpans.decrementAndGet();
+            droppedSpans.incrementAndGet();
+            return;
+        }
+        pending.compute( trace.getParentId(), ( parentId, children ) -> {
+            final PendingSpans spans = children == null ? new PendingSpans() : children;
+            spans.traces.add( trace );
+            spans.lastAdded = System.nanoTime();
+            return spans;
+        } );
+    }
+
+    /**
+     * Queues the spans of the tree of a finished root, including task roots, whose children end before them. Never blocks.
+     */
+    public void exportTree( final Trace root )
+    {
+        if ( !running )
+        {
+            return;
+        }
+        final List<Trace> tree = new ArrayList<>();
+        tree.add( root );
+        collectChildren( root.getId(), tree );
+        pendingSpans.addAndGet( 1 - tree.size() );
+        for ( Trace trace : tree )
+        {
+            if ( !queue.offer( encoder.encodeSpan( trace, root.getId() ) ) )
+            {
+                droppedSpans.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Drops all the spans waiting for their root, e.g. when capture is paused and the roots will not be seen.
+     */
+    public void clearPending()
+    {
+        pending.clear();
+        pendingSpans.set( 0 );
+    }
+
+    /**
+     * Drops the spans that have been waiting longer than the given age for their root, e.g. when the root was filtered out or never
+     * ended.
+     *
+     * @return the number of spans dropped
+     */
+    public int expirePending( final Duration maxAge )
+    {
+        final long oldest = System.nanoTime() - maxAge.toNanos();
+        int expired = 0;
+        for ( Map.Entry<String, PendingSpans> entry : pending.entrySet() )
+        {
+            final PendingSpans spans = entry.getValue();
+            if ( spans.lastAdded - oldest < 0 && pending.remove( entry.getKey(), spans ) )
+            {
+                expired += spans.traces.size();
+            }
+        }
+        pendingSpans.addAndGet( -expired );
+        return expired;
+    }
+
+    private void collectChildren( final String parentId, final List<Trace> tree )
+    {
+        final PendingSpans children = pending.remove( parentId );
+        if ( children == null )
+        {
+            return;
+        }
+        for ( Trace child : children.traces )
+        {
+            tree.add( child );
+            collectChildren( child.getId(), tree );
+        }
+    }
+
+    public long getExportedSpans()
+    {
+        return exportedSpans.get();
+    }
+
+    public long getDroppedSpans()
+    {
+        return droppedSpans.get();
+    }
+
+    public long getFailedBatches()
+    {
+        return failedBatches.get();
+    }
+
+    public int getQueueSize()
+    {
+        return queue.size();
+    }
+
+    private void sendLoop()
+    {
+        final List<byte[]> batch = new ArrayList<>( batchSize );
+        while ( running )
+        {
+            try
+            {
+                fillBatch( batch );
+                if ( !batch.isEmpty() )
+                {
+                    send( batch );
+                    batch.clear();
+                }
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            catch ( Throwable t )
+            {
+                LOG.error( "Exception in OTLP span export", t );
+                droppedSpans.addAndGet( batch.size() );
+                batch.clear();
+            }
+        }
+    }
+
+    private void fillBatch( final List<byte[]> batch )
+        throws InterruptedException
+    {
+        final byte[] first = queue.poll( batchTimeout.toMillis(), TimeUnit.MILLISECONDS );
+        if ( first == null )
+        {
+            return;
+        }
+        batch.add( first );
+        final long deadline = System.nanoTime() + batchTimeout.toNanos();
+        while ( batch.size() < batchSize )
+        {
+            queue.drainTo( batch, batchSize - batch.size() );
+            final long remaining = deadline - System.nanoTime();
+            if ( batch.size() >= batchSize || remaining <= 0 )
+            {
+                break;
+            }
+            final byte[] next = queue.poll( remaining, TimeUnit.NANOSECONDS );
+            if ( next == null )
+            {
+                break;
+            }
+            batch.add( next );
+        }
+    }
+
+    private void send( final List<byte[]> batch )
+        throws InterruptedException
+    {
+        final HttpRequest request = HttpRequest.newBuilder( endpoint ).
+            timeout( REQUEST_TIMEOUT ).
+            header( "Content-Type", "application/x-protobuf" ).
+            POST( HttpRequest.BodyPublishers.ofByteArray( encoder.encodeRequest( batch ) ) ).
+            build();
+
+        long backoff = INITIAL_BACKOFF_MILLIS;
+        for ( int attempt = 0; running; attempt++ )
+        {
+            boolean retryable;
+            try
+            {
+                final int status = httpClient.send( request, HttpResponse.BodyHandlers.discarding() ).statusCode();
+                if ( status >= 200 && status < 300 )
+                {
+                    exportedSpans.addAndGet( batch.size() );
+                    return;
+                }
+                retryable = status == 429 || status == 502 || status == 503 || status == 504;
+                if ( !retryable || attempt >= maxRetries )
+                {
+                    LOG.warn( "OTLP export of " + batch.size() + " spans rejected with HTTP status " + status );
+                }
+            }
+            catch ( IOException e )
+            {
+                retryable = true;
+                if ( attempt >= maxRetries )
+                {
+                    LOG.warn( "OTLP export of " + batch.size() + " spans failed: " + e.getMessage() );
+                }
+            }
+
+            if ( !retryable || attempt >= maxRetries )
+            {
+                break;
+            }
+            Thread.sleep( backoff + ThreadLocalRandom.current().nextLong( backoff / 2 + 1 ) );
+            backoff = Math.min( backoff * 2, MAX_BACKOFF_MILLIS );
+        }
+        failedBatches.incrementAndGet();
+        droppedSpans.addAndGet( batch.size() );
+    }
+
+    private static final class PendingSpans
+    {
+        private final List<Trace> traces = new ArrayList<>();
+
+        private long lastAdded;
+    }
+}
@@ -0,0 +1,155 @@
+package com.enonic.app.livetrace.otlp;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import com.enonic.xp.trace.Trace;
+
+/**
+ * Encodes XP traces as OTLP protobuf messages, following opentelemetry/proto/trace/v1/trace.proto.
+ */
+final class OtlpSpanEncoder
+{
+    private static final int SPAN_KIND_INTERNAL = 1;
+
+    private static final int SPAN_KIND_SERVER = 2;
+
+    private static final int STATUS_CODE_ERROR = 2;
+
+    private final byte[] resource;
+
+    private final byte[] scope;
+
+    OtlpSpanEncoder( final String serviceName, final String scopeName )
+    {
+        this.resource = new ProtobufWriter().message( 1, keyValue( "service.name", serviceName ) ).toByteArray();
+        this.scope = new ProtobufWriter().string( 1, scopeName ).toByteArray();
+    }
+
+    /**
+     * Encodes a single Span message. The OTLP trace id is derived from the id of the root trace so that all spans in a tree share it.
+     */
+    public byte[] encodeSpan( final Trace trace, final String rootId )
+    {
+        final ProtobufWriter span = new ProtobufWriter();
+        span.bytes( 1, traceId( rootId ) );
+        span.bytes( 2, spanId( trace.getId() ) );
+        if ( trace.getParentId() != null )
+        {
+            span.bytes( 4, spanId( trace.getParentId() ) );
+        }
+        span.string( 5, trace.getName() );
+        span.varint( 6, trace.getParentId() == null ? SPAN_KIND_SERVER : SPAN_KIND_INTERNAL );
+        span.fixed64( 7, epochNanos( trace.getStartTime() ) );
+        span.fixed64( 8, epochNanos( trace.getEndTime() ) );
+        for ( Map.Entry<String, Object> entry : trace.entrySet() )
+        {
+            if ( entry.getValue() != null )
+            {
+                span.message( 9, keyValue( entry.getKey(), entry.getValue() ) );
+            }
+        }
+        if ( isServerError( trace.get( "status" ) ) )
+        {
+            span.message( 15, new ProtobufWriter().varint( 3, STATUS_CODE_ERROR ) );
+        }
+        return span.toByteArray();
+    }
+
+    /**
+     * Wraps encoded spans in an ExportTraceServiceRequest with a single ResourceSpans and ScopeSpans.
+     */
+    public byte[] encodeRequest( final List<byte[]> spans )
+    {
+        final ProtobufWriter scopeSpans = new ProtobufWriter();
+        scopeSpans.encodedMessage( 1, scope );
+        for ( byte[] span : spans )
+        {
+            scopeSpans.encodedMessage( 2, span );
+        }
+
+        final ProtobufWriter resourceSpans = new ProtobufWriter();
+        resourceSpans.encodedMessage( 1, resource );
+        resourceSpans.message( 2, scopeSpans );
+
+        return new ProtobufWriter().message( 1, resourceSpans ).toByteArray();
+    }
+
+    private static ProtobufWriter keyValue( final String key, final Object value )
+    {
+        return new ProtobufWriter().string( 1, key ).message( 2, anyValue( value ) );
+    }
+
+    private static ProtobufWriter anyValue( final Object value )
+    {
+        final ProtobufWriter any = new ProtobufWriter();
+        if ( value instanceof Boolean )
+        {
+            any.bool( 2, (Boolean) value );
+        }
+        else if ( value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte )
+        {
+            any.varint( 3, ( (Number) value ).longValue() );
+        }
+        else if ( value instanceof Number )
+        {
+            any.doubleValue( 4, ( (Number) value ).doubleValue() );
+        }
+        else if ( value instanceof List )
+        {
+            final ProtobufWriter array = new ProtobufWriter();
+            for ( Object item : (List<?>) value )
+            {
+                array.message( 1, anyValue( item == null ? "" : item ) );
+            }
+            any.message( 5, array );
+        }
+        else
+        {
+            any.string( 1, value.toString() );
+        }
+        return any;
+    }
+
+    private static boolean isServerError( final Object status )
+    {
+        if ( status instanceof Number )
+        {
+            return ( (Number) status ).intValue() >= 500;
+        }
+        return status != null && status.toString().startsWith( "5" );
+    }
+
+    private static long epochNanos( final Instant instant )
+    {
+        return instant == null ? 0 : instant.getEpochSecond() * 1_000_000_000L + instant.getNano();
+    }
+
+    private static byte[] traceId( final String id )
+    {
+        final UUID uuid = toUuid( id );
+        return ByteBuffer.allocate( 16 ).putLong( uuid.getMostSignificantBits() ).putLong( uuid.getLeastSignificantBits() ).array();
+    }
+
+    private static byte[] spanId( final String id )
+    {
+        final UUID uuid = toUuid( id );
+        return ByteBuffer.allocate( 8 ).putLong( uuid.getMostSignificantBits() ^ uuid.getLeastSignificantBits() ).array();
+    }
+
+    private static UUID toUuid( final String id )
+    {
+        try
+        {
+            return UUID.fromString( id );
+        }
+        catch ( IllegalArgumentException e )
+        {
+            return UUID.nameUUIDFromBytes( id.getBytes( StandardCharsets.UTF_8 ) );
+        }
+    }
+}
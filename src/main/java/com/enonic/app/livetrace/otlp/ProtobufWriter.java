@@ -0,0 +1,99 @@
+package com.enonic.app.livetrace.otlp;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+final class ProtobufWriter
+{
+    private static final int WIRE_VARINT = 0;
+
+    private static final int WIRE_FIXED64 = 1;
+
+    private static final int WIRE_LENGTH_DELIMITED = 2;
+
+    private final ByteArrayOutputStream out;
+
+    ProtobufWriter()
+    {
+        this.out = new ByteArrayOutputStream( 256 );
+    }
+
+    public ProtobufWriter varint( final int field, final long value )
+    {
+        tag( field, WIRE_VARINT );
+        rawVarint( value );
+        return this;
+    }
+
+    public ProtobufWriter bool( final int field, final boolean value )
+    {
+        return varint( field, value ? 1 : 0 );
+    }
+
+    public ProtobufWriter fixed64( final int field, final long value )
+    {
+        tag( field, WIRE_FIXED64 );
+        for ( int i = 0; i < 8; i++ )
+        {
+            out.write( (int) ( value >>> ( 8 * i ) ) & 0xFF );
+        }
+        return this;
+    }
+
+    public ProtobufWriter doubleValue( final int field, final double value )
+    {
+        return fixed64( field, Double.doubleToRawLongBits( value ) );
+    }
+
+    public ProtobufWriter string( final int field, final String value )
+    {
+        return bytes( field, value.getBytes( StandardCharsets.UTF_8 ) );
+    }
+
+    public ProtobufWriter bytes( final int field, final byte[] value )
+    {
+        tag( field, WIRE_LENGTH_DELIMITED );
+        rawVarint( value.length );
+        out.write( value, 0, value.length );
+        return this;
+    }
+
+    public ProtobufWriter message( final int field, final ProtobufWriter message )
+    {
+        tag( field, WIRE_LENGTH_DELIMITED );
+        final byte[] encoded = message.toByteArray();
+        rawVarint( encoded.length );
+        out.write( encoded, 0, encoded.length );
+        return this;
+    }
+
+    public ProtobufWriter encodedMessage( final int field, final byte[] encoded )
+    {
+        return bytes( field, encoded );
+    }
+
+    public int size()
+    {
+        return out.size();
+    }
+
+    public byte[] toByteArray()
+    {
+        return out.toByteArray();
+    }
+
+    private void tag( final int field, final int wireType )
+    {
+        rawVarint( ( (long) field << 3 ) | wireType );
+    }
+
+    private void rawVarint( long value )
+    {
+        while ( ( value & ~0x7FL ) != 0 )
+        {
+            out.write( (int) ( ( value & 0x7F ) | 0x80 ) );
+            value >>>= 7;
+        }
+        out.write( (int) value );
+    }
+}
@@ -0,0 +1,296 @@
+package com.enonic.app.livetrace.tasks;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.component.annotations.Reference;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.enonic.app.livetrace.Subscribers;
+import com.enonic.xp.event.Event;
+import com.enonic.xp.event.EventListener;
+import com.enonic.xp.task.TaskInfo;
+import com.enonic.xp.task.TaskProgress;
+import com.enonic.xp.task.TaskService;
+
+/**
+ * Keeps a table of the tasks in the cluster, updated from task events, and sends the changes to the subscribed WebSocket sessions.
+ * <p>
+ * A single event listener is used for all the sessions. Events received within the coalescing window are merged per task, and only
+ * the fields that changed since the last message are sent.
+ */
+@Component(immediate = true, service = {TaskMonitor.class, EventListener.class})
+public final class TaskMonitor
+    implements EventListener
+{
+    private static final Logger LOG = LoggerFactory.getLogger( TaskMonitor.class );
+
+    private static final String TASK_EVENT_PREFIX = "task.";
+
+    private static final String REMOVED_EVENT = "task.removed";
+
+    private static final long COALESCE_WINDOW_MILLIS = 500;
+
+    private TaskService taskService;
+
+    private final Subscribers subscribers;
+
+    private final ScheduledExecutorService scheduler;
+
+    private final Map<String, Map<String, Object>> tasks;
+
+    private final Map<String, Map<String, Object>> sentTasks;
+
+    private final Set<String> changedTaskIds;
+
+    private ScheduledFuture<?> flushFuture;
+
+    public TaskMonitor()
+    {
+        this.subscribers = new Subscribers();
+        this.scheduler = Executors.newSingleThreadScheduledExecutor();
+        this.tasks = new LinkedHashMap<>();
+        this.sentTasks = new LinkedHashMap<>();
+        this.changedTaskIds = new LinkedHashSet<>();
+    }
+
+    @Reference
+    public void setTaskService( final TaskService taskService )
+    {
+        this.taskService = taskService;
+    }
+
+    @Deactivate
+    public void deactivate()
+    {
+        scheduler.shutdownNow();
+    }
+
+    public void subscribe( final String sessionId, final Consumer<Object> onData )
+    {
+        final Map<String, Object> snapshot;
+        synchronized ( this )
+        {
+            if ( subscribers.add( sessionId, onData ) )
+            {
+                loadTasks();
+                flushFuture = scheduler.scheduleAtFixedRate( this::flush, COALESCE_WINDOW_MILLIS, COALESCE_WINDOW_MILLIS,
+                                                             TimeUnit.MILLISECONDS );
+            }
+            snapshot = Map.of( "tasks", new ArrayList<>( sentTasks.values() ) );
+        }
+        subscribers.send( sessionId, snapshot );
+    }
+
+    public synchronized void unsubscribe( final String sessionId )
+    {
+        if ( subscribers.remove( sessionId ) )
+        {
+            flushFuture.cancel( false );
+            tasks.clear();
+            sentTasks.clear();
+            changedTaskIds.clear();
+        }
+    }
+
+    @Override
+    public void onEvent( final Event event )
+    {
+        if ( subscribers.isEmpty() || !event.getType().startsWith( TASK_EVENT_PREFIX ) )
+        {
+            return;
+        }
+        final Object id = event.getData().get( "id" );
+        if ( id == null )
+        {
+            return;
+        }
+        final String taskId = id.toString();
+
+        synchronized ( this )
+        {
+            if ( REMOVED_EVENT.equals( event.getType() ) )
+            {
+                tasks.remove( taskId );
+            }
+            else
+            {
+                tasks.put( taskId, fromEvent( taskId, event.getData(), tasks.get( taskId ) ) );
+            }
+            changedTaskIds.add( taskId );
+        }
+    }
+
+    private void loadTasks()
+    {
+        tasks.clear();
+        sentTasks.clear();
+        changedTaskIds.clear();
+        for ( TaskInfo taskInfo : taskService.getAllTasks() )
+        {
+            final Map<String, Object> task = fromTaskInfo( taskInfo );
+            tasks.put( taskInfo.getId().toString(), task );
+            sentTasks.put( taskInfo.getId().toString(), task );
+        }
+    }
+
+    private void flush()
+    {
+        try
+        {
+            final List<Map<String, Object>> diffs = new ArrayList<>();
+            synchronized ( this )
+            {
+                for ( String taskId : changedTaskIds )
+                {
+                    final Map<String, Object> diff = diff( taskId, sentTasks.get( taskId ), tasks.get( taskId ) );
+                    if ( diff != null )
+                    {
+                        diffs.add( diff );
+                    }
+                    if ( tasks.containsKey( taskId ) )
+                    {
+                        sentTasks.put( taskId, tasks.get( taskId ) );
+                    }
+                    else
+                    {
+                        sentTasks.remove( taskId );
+                    }
+                }
+                changedTaskIds.clear();
+            }
+            if ( !diffs.isEmpty() )
+            {
+                subscribers.sendToAll( Map.of( "diffs", diffs ) );
+            }
+        }
+        catch ( Throwable t )
+        {
+            LOG.error( "Exception in task monitor", t );
+        }
+    }
+
+    private static Map<String, Object> diff( final String taskId, final Map<String, Object> previous, final Map<String, Object> current )
+    {
+        final Map<String, Object> diff = new LinkedHashMap<>();
+        if ( current == null )
+        {
+            if ( previous == null )
+            {
+                return null;
+            }
+            diff.put( "event", "removed" );
+            diff.put( "taskId", taskId );
+            return diff;
+        }
+        if ( previous == null )
+        {
+            diff.put( "event", "added" );
+            diff.put( "task", current );
+            return diff;
+        }
+
+        final Map<String, Object> changes = new LinkedHashMap<>();
+        current.forEach( ( key, value ) -> {
+            if ( !Objects.equals( value, previous.get( key ) ) )
+            {
+                changes.put( key, value );
+            }
+        } );
+        if ( changes.isEmpty() )
+        {
+            return null;
+        }
+        diff.put( "event", "updated" );
+        diff.put( "taskId", taskId );
+        diff.put( "changes", changes );
+        return diff;
+    }
+
+    private static Map<String, Object> fromTaskInfo( final TaskInfo taskInfo )
+    {
+        final TaskProgress progress = taskInfo.getProgress();
+        final Map<String, Object> task = new LinkedHashMap<>();
+        task.put( "id", taskInfo.getId().toString() );
+        task.put( "name", taskInfo.getName() );
+        task.put( "description", taskInfo.getDescription() );
+        task.put( "state", Objects.toString( taskInfo.getState(), null ) );
+        task.put( "node", taskInfo.getNode() );
+        task.put( "user", Objects.toString( taskInfo.getUser(), "" ) );
+        task.put( "application", Objects.toString( taskInfo.getApplication(), null ) );
+        task.put( "startTime", Objects.toString( taskInfo.getStartTime(), null ) );
+        task.put( "progress", progress( progress.getInfo(), progress.getCurrent(), progress.getTotal() ) );
+        return task;
+    }
+
+    private static Map<String, Object> fromEvent( final String taskId, final Map<String, Object> data, final Map<String, Object> existing )
+    {
+        final Map<String, Object> task = existing == null ? new LinkedHashMap<>() : new LinkedHashMap<>( existing );
+        task.put( "id", taskId );
+        putIfPresent( task, data, "name" );
+        putIfPresent( task, data, "description" );
+        putIfPresent( task, data, "state" );
+        putIfPresent( task, data, "node" );
+        putIfPresent( task, data, "user" );
+        putIfPresent( task, data, "application" );
+        putIfPresent( task, data, "startTime" );
+        task.putIfAbsent( "user", "" );
+
+        final Object progress = data.get( "progress" );
+        if ( progress instanceof Map )
+        {
+            final Map<?, ?> values = (Map<?, ?>) progress;
+            task.put( "progress", progress( Objects.toString( values.get( "info" ), "" ), intValue( values.get( "current" ) ),
+                                            intValue( values.get( "total" ) ) ) );
+        }
+        task.putIfAbsent( "progress", progress( "", 0, 0 ) );
+        return task;
+    }
+
+    private static Map<String, Object> progress( final String info, final int current, final int total )
+    {
+        final Map<String, Object> progress = new LinkedHashMap<>();
+        progress.put( "info", info );
+        progress.put( "current", current );
+        progress.put( "total", total );
+        return progress;
+    }
+
+    private static void putIfPresent( final Map<String, Object> task, final Map<String, Object> data, final String key )
+    {
+        final Object value = data.get( key );
+        if ( value != null )
+        {
+            task.put( key, value.toString() );
+        }
+    }
+
+    private static int intValue( final Object value )
+    {
+        if ( value instanceof Number )
+        {
+            return ( (Number) value ).intValue();
+        }
+        try
+        {
+            return value == null ? 0 : Integer.parseInt( value.toString() );
+        }
+        catch ( NumberFormatException e )
+        {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.enonic.app.livetrace.tasks;
+
+import java.util.function.Consumer;
+
+import com.enonic.xp.script.bean.BeanContext;
+import com.enonic.xp.script.bean.ScriptBean;
+
+public class TasksHandler
+    implements ScriptBean
+{
+    private TaskMonitor taskMonitor;
+
+    public void subscribe( final String sessionId, final Consumer<Object> onData )
+    {
+        taskMonitor.subscribe( sessionId, onData );
+    }
+
+    public void unsubscribe( final String sessionId )
+    {
+        taskMonitor.unsubscribe( sessionId );
+    }
+
+    @Override
+    public void initialize( final BeanContext context )
+    {
+        this.taskMonitor = context.getService( TaskMonitor.class ).get();
+    }
+}
@@ -28,6 +28,32 @@
         return parseFloat((bytes / Math.pow(k, i)).toFixed(1)) + ' ' + sizes[i];
     };
 
+    var repeatBadge = function (repeats) {
+        if (!repeats || repeats.length === 0) {
+            return null;
+        }
+        var calls = repeats.reduce((sum, r) => sum + r.count, 0);
+        var badge = $('<span class="lt-repeat-badge">').text(calls + '\u00d7');
+        var text = repeats.map((r) => r.count + ' ' + (r.identical ? 'identical' : 'similar') + ' ' + r.name + ' calls' +
+                                      (r.identical ? ', ' + (Math.round(r.avoidableTime * 10) / 10) + ' ms avoidable' : '') + '\r\n' +
+                                      r.shape).join('\r\n\r\n');
+        new Opentip(badge.get(0), splitLine(text, 100), {style: "tag"});
+        return badge;
+    };
+
+    var contentionBadge = function (contention) {
+        if (!contention || (contention.blockedTime <= 0 && contention.locks.length === 0)) {
+            return null;
+        }
+        var badge = $('<span class="lt-contention-badge">').text(Math.max(contention.blockedTime, 0) + ' ms');
+        var text = 'Blocked ' + contention.blockedCount + ' times, ' + contention.blockedTime + ' ms\r\n' +
+                   'Waited ' + contention.waitedCount + ' times, ' + contention.waitedTime + ' ms' +
+                   contention.locks.map((l) => '\r\n\r\n' + l.lock + (l.owner ? ' held by ' + l.owner : '') + ' (' + l.samples +
+                                               ' samples)').join('');
+        new Opentip(badge.get(0), splitLine(text, 100), {style: "tag"});
+        return badge;
+    };
+
     class WebSocketConnection {
         constructor(url) {
             this.url = this._getWebSocketUrl(url);
@@ -166,13 +192,9 @@
                     for (pt = 0; pt < this.traces.length; pt++) {
                         parentTrace = this.traces[pt];
                         if (parentTrace.trace.id === trace.id) {
-                            parentTrace.trace.children = (parentTrace.trace.children || []);
-                            parentTrace.trace.children.push(trace.children || []);
-                            if (trace.children) {
-                                trace.children.forEach(function (ct) {
-                                    parentTrace.children.push(new Trace(ct, parentTrace, parentTrace.maxDuration, parentTrace.level + 1));
-                                });
-                            }
+                            // the full task tree is merged on the server, fetch it again on the next expand
+                            parentTrace.trace.spans = (parentTrace.trace.spans || 0) + (trace.spans || 0);
+                            parentTrace.loaded = false;
 
                             traces.splice(t, 1);
                             forceRefresh = true;
@@ -195,9 +217,7 @@
                     for (pt = 0; pt < this.traces.length; pt++) {
                         parentTrace = this.traces[pt];
                         if (parentTrace.trace.id === trace.data.parentId) {
-                            parentTrace.trace.children = (parentTrace.trace.children || []);
-                            parentTrace.trace.children.push(trace);
-                            parentTrace.children.push(new Trace(trace, parentTrace, maxDuration, parentTrace.level + 1));
+                            parentTrace.attach(trace, maxDuration);
                             break;
                         }
                     }
@@ -340,13 +360,41 @@
             this.maxDuration = maxDuration;
             this.expanded = false;
             this.visible = false;
+            this.loaded = !trace.spans;
             this.children = [];
+            this.attached = [];
             trace.children = trace.children || [];
             for (let i = 0; i < trace.children.length; i++) {
                 this.children.push(new Trace(trace.children[i], this, maxDuration, this.level + 1));
             }
         }
 
+        hasChildren() {
+            return this.children.length > 0 || !this.loaded;
+        }
+
+        attach(traceJson, maxDuration) {
+            var child = new Trace(traceJson, this, maxDuration, this.level + 1);
+            this.trace.children.push(traceJson);
+            this.children.push(child);
+            this.attached.push(child);
+        }
+
+        setTree(tree) {
+            var treeChildren = tree.children || [];
+            this.loaded = true;
+            this.trace.children = treeChildren.concat(this.attached.map((t) => t.trace));
+            this.children = treeChildren.map((t) => new Trace(t, this, this.maxDuration, this.level + 1)).concat(this.attached);
+        }
+
+        treeExpired() {
+            this.loaded = true;
+            if (this.$row) {
+                this.$row.addClass('lt-trace-expired').attr('title', 'Trace details are no longer available');
+                this.$row.find('.lt-more-icon').css('visibility', this.hasChildren() ? 'visible' : 'hidden');
+            }
+        }
+
         setMaxDuration(maxDuration) {
             this.maxDuration = maxDuration;
             for (let i = 0; i < this.children.length; i++) {
@@ -404,12 +452,13 @@
             var tdArrow = $('<span class="lt-more-icon">&#9654;</span>');
             var statusText = isWS ? '101' : (traceData.status || '');
             var tdStatus = $('<td>').append(tdArrow).append(document.createTextNode(statusText));
-            if (!trace.children || trace.children.length === 0) {
+            if (!this.hasChildren()) {
                 tdArrow.css('visibility', 'hidden');
             }
             var tdMethod = $('<td>').text(traceData.method || trace.name);
 
             new Opentip(tdMethod.get(0), JSON.stringify(traceData), {style: "tag"})
+            tdStatus.append(repeatBadge(trace.repeats)).append(contentionBadge(trace.contention));
 
             var tdPath = $('<td>');
             if (traceData.url) {
@@ -485,6 +534,8 @@
             var self = e.data.self;
             if (self.expanded) {
                 self.unselectRow();
+            } else if (!self.loaded) {
+                requestTree(self, e.shiftKey);
             } else {
                 if (e.shiftKey) {
                     self.expandAll();
@@ -630,8 +681,8 @@
                 app = traceData.stack;
             }
             var tdArrow = $('<span class="lt-more-icon">&#9654;</span>').css('padding-left', (this.level * 6) + 'px');
-            var tdTrace = $('<td>').append(tdArrow).append(document.createTextNode(traceText));
-            if (!trace.children || trace.children.length === 0) {
+            var tdTrace = $('<td>').append(tdArrow).append(document.createTextNode(traceText)).append(repeatBadge(trace.repeats));
+            if (!this.hasChildren()) {
                 tdArrow.css('visibility', 'hidden');
             }
             var tdMethod = $('<td>').text(traceMethod);
@@ -646,6 +697,10 @@
             var tdApp = $('<td>').text(app || '');
             var tdSize = $('<td>').text(traceSize);
             var tdDuration = $('<td>').text(trace.duration + '.' +  String(trace.micro).padStart(3, '0')  + ' ms');
+            if (trace.selfTime !== undefined) {
+                new Opentip(tdDuration.get(0), 'Self time: ' + formatMs(trace.selfTime), {style: "tag"});
+            }
+            tr.toggleClass('lt-critical', !!trace.critical);
             var tdTimeBar = $('<td colspan="4">');
 
             var offset = new Date(trace.start).getTime() - parentStart.getTime();
@@ -661,6 +716,7 @@
     class Task {
         constructor(taskJson) {
             this.table = null;
+            this.json = taskJson;
             this.id = taskJson.id;
             this.name = taskJson.name;
             this.description = taskJson.description;
@@ -759,6 +815,7 @@
         }
 
         updateFrom(task) {
+            this.json = task.json;
             if (!this.endTime && (task.state === 'FINISHED' || task.state === 'FAILED')) {
                 this.endTime = new Date();
             }
@@ -816,6 +873,16 @@
             }
         }
 
+        applyChanges(taskId, changes) {
+            var existingTask = this.tasks[taskId];
+            if (!existingTask) {
+                console.error('Could not find task to update', taskId);
+                return;
+            }
+            var taskJson = Object.assign({}, existingTask.json, changes);
+            this.updateTask(new Task(taskJson));
+        }
+
         removeTask(taskId) {
             var task = this.tasks[taskId];
             delete this.tasks[taskId];
@@ -1234,7 +1301,8 @@
 
     var tabMan;
     var samplingConn = null, wsAvailable = false;
-    var samplingId, samplingIntervalId = 0;
+    var samplingId, samplingIntervalId = 0, samplingStopped = true;
+    var governorStatus = null;
     var traceTable = new TraceTable();
     var timeDurationMode = 'duration';
     var taskTable;
@@ -1265,6 +1333,14 @@
         $('#startSampling').on('click', startSampling);
         $('#stopSampling').on('click', stopSampling);
         $('#clearSampling').on('click', clearSampling);
+        $('#exportSampling').on('click', exportSampling);
+        $('#importSampling').on('click', () => $('#importFile').click());
+        $('#importFile').on('change', function () {
+            if (this.files.length > 0) {
+                importSampling(this.files[0]);
+            }
+            $(this).val('');
+        });
         $('#cancelLicenseModal').on('click', hideLicenseModal);
         $('#uploadLicense').on('click', uploadLicense);
         $('#uploadLicenseFile').on('change', sendUploadLicense);
@@ -1288,6 +1364,10 @@
         $('#timeToggle').on('click', toggleTime);
         $('#taskTimeToggle').on('click', taskTimeToggle);
         $('#traceSystem').on('click', traceSystemToggle);
+        $('#httpQueryShapes').on('click', {view: 'queryShapes'}, toggleAnalysisView);
+        $('#httpRepeats').on('click', {view: 'repeats'}, toggleAnalysisView);
+        $('#httpFlame').on('click', {view: 'flame'}, toggleAnalysisView);
+        $('#httpLocks').on('click', {view: 'locks'}, toggleAnalysisView);
 
         var typingTimer, doneTypingInterval = 800;
         var searchInput = $('#filterUrl');
@@ -1384,9 +1464,43 @@
 
             var threads = data.threads;
             threadChart.addPoints(t, [threads.http, threads.total]);
+
+            if (data.httpPool) {
+                httpPoolReceived(data.httpPool);
+            }
+            if (data.pipeline) {
+                pipelineReceived(data.pipeline);
+            }
         });
     };
 
+    var pipelineReceived = function (pipeline) {
+        var round = (v) => Math.round(v * 10) / 10;
+        $('#pipelineEvents').text(round(pipeline.eventRate) + '/s, ' + round(pipeline.filteredRate) + '/s filtered');
+        $('#pipelineQueue').text(pipeline.queue);
+        $('#pipelineOverhead').text(round(pipeline.overhead * 100) + '% CPU, ' + round(pipeline.eventCostMicros) + ' µs/event, ' +
+                                    round(pipeline.treeCostMicros) + ' µs/tree');
+        $('#pipelineTimes').text(formatMs(pipeline.assemblyTime) + ' / ' + formatMs(pipeline.sendTime));
+        $('#pipelineSerialized').text(formatMs(pipeline.serializationTime) + ', ' + round(pipeline.serializedBytesRate / 1024) + ' KB/s');
+        $('#pipelineDropped').text(pipeline.orphanedSpans + ' orphaned, ' + pipeline.evictedSpans + ' evicted, ' +
+                                   pipeline.autoStops + ' auto-stops');
+    };
+
+    var httpPoolSaturations = [];
+
+    var httpPoolReceived = function (pool) {
+        httpPoolSaturations = httpPoolSaturations.concat(pool.saturation).slice(-20);
+        var text = 'HTTP busy max ' + pool.busyMax + ' / ' + pool.max + ', avg ' + (Math.round(pool.busyAvg * 10) / 10);
+        if (pool.queueMax >= 0) {
+            text += ', queue max ' + pool.queueMax;
+        }
+        var $status = $('#httpPoolStatus').text('(' + text + ')');
+        $status.toggleClass('lt-saturated', pool.saturation.length > 0);
+        $status.attr('title', httpPoolSaturations.length === 0 ? '' : 'Saturated:\n' + httpPoolSaturations.map(
+            (s) => formatTimeWithMillis(new Date(s.start)) + ' - ' + formatTimeWithMillis(new Date(s.end)) +
+                   (s.queue > 0 ? ' (queue ' + s.queue + ')' : '')).join('\n'));
+    };
+
     // TASKS
     var initTasks = function () {
         taskTable = new TaskTable($('.lt-task-table'));
@@ -1400,9 +1514,14 @@
             var tasks = msg.tasks.map((taskJson) => new Task(taskJson));
             taskTable.setTasks(tasks);
 
-        } else if (msg.task) {
-            var task = new Task(msg.task);
-            taskTable.updateTask(task);
+        } else if (msg.diffs) {
+            msg.diffs.forEach((diff) => {
+                if (diff.event === 'added') {
+                    taskTable.updateTask(new Task(diff.task));
+                } else if (diff.event === 'updated') {
+                    taskTable.applyChanges(diff.taskId, diff.changes);
+                }
+            });
 
         }
         /* else if (msg.taskId) {
@@ -1527,6 +1646,7 @@
             if (samplingCount > 0) {
                 text += ' — ' + quantityWord(samplingCount, 'No requests yet', '1 request', samplingCount + ' requests');
             }
+            text += governorText(governorStatus);
 
             var dots = (dotCount % 4);
             text += '.'.repeat(dots) + '\u00A0'.repeat(3 - dots);
@@ -1536,9 +1656,18 @@
         samplingProgress();
         samplingIntervalId = setInterval(samplingProgress, 300);
 
+        if (samplingConn) {
+            samplingConn.disconnect();
+        }
         samplingConn = new WebSocketConnection(svcUrl + 'tracing');
+        samplingConn.onConnect(() => {
+            if (!samplingStopped) {
+                samplingConn.send({action: 'start'});
+            }
+        });
         samplingConn.onMessage(samplingTracesReceived);
         samplingConn.onError(() => {
+            samplingStopped = true;
             checkAuthenticated();
             clearInterval(samplingIntervalId);
             showSamplingResult();
@@ -1552,6 +1681,10 @@
             }
         });
         samplingId = undefined;
+        samplingStopped = false;
+        pendingTrees = {};
+        governorStatus = null;
+        analysisData = {};
         samplingConn.connect();
     };
 
@@ -1562,6 +1695,14 @@
         } else if (msg.action === 'stop') {
             stopSampling();
             return;
+        } else if (msg.governor) {
+            governorStatus = msg.governor;
+            return;
+        } else if (analysisReceived(msg)) {
+            return;
+        } else if (msg.traceId) {
+            treeReceived(msg);
+            return;
         } else if (!msg.traces) {
             stopSampling();
             return;
@@ -1575,14 +1716,18 @@
     };
 
     var stopSampling = function () {
+        if (samplingStopped) {
+            return;
+        }
+        samplingStopped = true;
         $('#stopSampling').hide();
         var isEmpty = traceTable.count() === 0;
 
         clearInterval(samplingIntervalId);
         showSamplingResult();
 
+        // keep the connection open to fetch the trees of the sampled requests
         samplingConn.send({action: 'stop', samplingId: samplingId});
-        samplingConn.disconnect();
 
         if (isEmpty) {
             $('#startSampling').show();
@@ -1592,6 +1737,141 @@
         }
     };
 
+    // TRACE TREES
+    var pendingTrees = {};
+
+    var requestTree = function (trace, expandAll) {
+        if (!samplingConn || !samplingConn.connected || !samplingId) {
+            trace.treeExpired();
+            return;
+        }
+        pendingTrees[trace.id()] = {trace: trace, expandAll: expandAll};
+        samplingConn.send({action: 'tree', samplingId: samplingId, traceId: trace.id()});
+    };
+
+    var treeReceived = function (msg) {
+        var pending = pendingTrees[msg.traceId];
+        delete pendingTrees[msg.traceId];
+        if (!pending) {
+            return;
+        }
+        if (msg.expired) {
+            pending.trace.treeExpired();
+        } else {
+            pending.trace.setTree(msg.tree);
+            if (pending.expandAll) {
+                pending.trace.expandAll();
+            } else {
+                pending.trace.selectRow();
+            }
+        }
+    };
+
+    var governorText = function (governor) {
+        if (!governor) {
+            return '';
+        }
+        if (governor.paused) {
+            return ' (paused: memory pressure)';
+        }
+        if (governor.samplingRatio < 1) {
+            var cause = governor.reason === 'cpu' ? 'CPU load' : 'overhead budget';
+            return ' (' + Math.round(governor.samplingRatio * 100) + '% of requests: ' + cause + ')';
+        }
+        return '';
+    };
+
+    // ANALYSIS
+    var formatMs = function (ms) {
+        return ms === undefined || ms === null ? '' : (Math.round(ms * 10) / 10) + ' ms';
+    };
+
+    var analysisViews = {
+        queryShapes: {
+            columns: ['Query shape', 'Count', 'Total', 'Avg', 'p99', 'Max', 'Hits'],
+            cells: (s) => [s.shape, s.count, formatMs(s.totalTime), formatMs(s.avgTime), formatMs(s.p99), formatMs(s.maxTime), s.hits],
+            tooltip: (s) => s.samples.join('\r\n')
+        },
+        repeats: {
+            columns: ['Repeated call', 'Path', 'Requests', 'Calls', 'Identical', 'Total', 'Avoidable'],
+            cells: (r) => [r.shape, r.path, r.occurrences, r.calls, r.identical ? 'Yes' : 'No', formatMs(r.totalTime),
+                r.identical ? formatMs(r.avoidableTime) : ''],
+            tooltip: (r) => r.shape
+        },
+        flame: {
+            columns: ['Call path', 'Calls', 'Self', 'Total', 'Self %'],
+            rows: (root) => flattenFlameTree(root, 0, root.totalTime, []),
+            cells: (n) => ['\u00a0'.repeat(n.depth * 3) + n.name, n.count, formatMs(n.selfTime), formatMs(n.totalTime),
+                n.rootTime > 0 ? (Math.round(n.selfTime / n.rootTime * 1000) / 10) + ' %' : '']
+        },
+        locks: {
+            columns: ['Lock', 'Requests', 'Samples', 'Blocked (est.)', 'Owners', 'Paths'],
+            cells: (l) => [l.lock, l.requests, l.samples, formatMs(l.blockedTime), l.owners.join(', '), l.paths.join(', ')],
+            tooltip: (l) => l.lock + '\r\n' + l.paths.join('\r\n')
+        }
+    };
+
+    var flattenFlameTree = function (node, depth, rootTime, rows) {
+        rows.push({name: node.name, count: node.count, selfTime: node.selfTime, totalTime: node.totalTime, depth: depth, rootTime: rootTime});
+        (node.children || []).forEach((child) => flattenFlameTree(child, depth + 1, rootTime, rows));
+        return rows;
+    };
+    var analysisView = null, analysisIntervalId = 0, analysisData = {};
+
+    var toggleAnalysisView = function (e) {
+        var view = e.data.view;
+        $(this).blur();
+        clearInterval(analysisIntervalId);
+        $('.lt-analysis-button').removeClass('lt-active');
+        if (analysisView === view) {
+            analysisView = null;
+            $('#httpTab .lt-panel').removeClass('lt-analysis-active');
+            return;
+        }
+        analysisView = view;
+        $(this).addClass('lt-active');
+        $('#httpTab .lt-panel').addClass('lt-analysis-active');
+        renderAnalysis();
+        requestAnalysis();
+        analysisIntervalId = setInterval(requestAnalysis, 2000);
+    };
+
+    var requestAnalysis = function () {
+        if (analysisView && samplingConn && samplingId) {
+            samplingConn.send({action: analysisView, samplingId: samplingId});
+        }
+    };
+
+    var analysisReceived = function (msg) {
+        var view = Object.keys(analysisViews).find((v) => msg[v] !== undefined);
+        if (!view) {
+            return false;
+        }
+        analysisData[view] = msg[view];
+        if (analysisView === view) {
+            renderAnalysis();
+        }
+        return true;
+    };
+
+    var renderAnalysis = function () {
+        var view = analysisViews[analysisView];
+        var $table = $('.lt-analysis-table');
+        var $header = $('<tr>').append(view.columns.map((c) => $('<th>').text(c)));
+        $table.find('thead').empty().append($header);
+
+        var data = analysisData[analysisView];
+        var items = data && view.rows ? view.rows(data) : (data || []);
+        var rows = items.map((item) => {
+            var $row = $('<tr>').append(view.cells(item).map((c) => $('<td>').text(c)));
+            if (view.tooltip) {
+                new Opentip($row.children().get(0), splitLine(view.tooltip(item), 100), {style: "tag"});
+            }
+            return $row;
+        });
+        $table.find('tbody').empty().append(rows);
+    };
+
     var showSamplingResult = function () {
         var samplingCount = traceTable.count();
         var text = quantityWord(samplingCount, '', '1 request', samplingCount + ' requests') + ' sampled';
@@ -1599,6 +1879,10 @@
     };
 
     var clearSampling = function () {
+        if (samplingConn) {
+            samplingConn.disconnect();
+            samplingConn = null;
+        }
         $('#clearSampling').hide();
         $('#startSampling').show();
         showSamplingPanel('clear');
@@ -1613,6 +1897,113 @@
         $('.lt-http-shader').toggle(status === 'sampling');
         $('.lt-http-sampling').toggle(status === 'clear' || status === 'sampling');
         $('#clearSampling').toggle(status === 'sampled');
+        $('#exportSampling').toggle(status === 'sampled' && !!samplingId);
+        $('#importSampling').toggle(status !== 'sampling');
+    };
+
+    // EXPORT / IMPORT
+    var exportSampling = function () {
+        if (samplingId) {
+            window.location.href = svcUrl + 'export?samplingId=' + encodeURIComponent(samplingId);
+        }
+    };
+
+    var importSampling = async function (file) {
+        clearSampling();
+        samplingId = undefined;
+        samplingStopped = true;
+        analysisData = {};
+        tabMan.show('http');
+        showSamplingPanel('sampled');
+        $('#samplingSeconds').text('Importing ' + file.name + '...');
+
+        var imported = {session: null, trees: 0, expired: 0, ticks: 0, taskEvents: 0};
+        var reader = file.stream().pipeThrough(new DecompressionStream('gzip')).getReader();
+        var decoder = new TextDecoder();
+        // chunks not consumed yet; a record is only copied once, when it is complete
+        var chunks = [];
+        var available = 0;
+        var recordLength = -1;
+        var take = function (length) {
+            var first = chunks[0];
+            var bytes;
+            if (first.length >= length) {
+                bytes = first.subarray(0, length);
+                chunks[0] = first.subarray(length);
+            } else {
+                bytes = new Uint8Array(length);
+                var filled = 0;
+                while (filled < length) {
+                    var part = chunks[0].subarray(0, length - filled);
+                    bytes.set(part, filled);
+                    filled += part.length;
+                    chunks[0] = chunks[0].subarray(part.length);
+                    if (chunks[0].length === 0) {
+                        chunks.shift();
+                    }
+                }
+            }
+            if (chunks.length > 0 && chunks[0].length === 0) {
+                chunks.shift();
+            }
+            available -= length;
+            return bytes;
+        };
+        try {
+            while (true) {
+                var chunk = await reader.read();
+                if (chunk.done) {
+                    break;
+                }
+                chunks.push(chunk.value);
+                available += chunk.value.length;
+
+                while (true) {
+                    if (recordLength < 0) {
+                        if (available < 4) {
+                            break;
+                        }
+                        var header = take(4);
+                        recordLength = new DataView(header.buffer, header.byteOffset, 4).getUint32(0);
+                    }
+                    if (available < recordLength) {
+                        break;
+                    }
+                    importRecord(JSON.parse(decoder.decode(take(recordLength))), imported);
+                    recordLength = -1;
+                }
+                traceTable.display();
+            }
+        } catch (e) {
+            $('#samplingSeconds').text('Could not import ' + file.name + ': ' + e.message);
+            return;
+        }
+
+        var text = 'Imported ' + quantityWord(imported.trees, 'no requests', '1 request', imported.trees + ' requests');
+        if (imported.session) {
+            text += ' sampled at ' + formatTimeWithMillis(new Date(imported.session.started));
+        }
+        if (imported.expired > 0) {
+            text += ', ' + quantityWord(imported.expired, '', '1 request', imported.expired + ' requests') +
+                    ' expired before the export';
+        }
+        $('#samplingSeconds').text(text).attr('title', imported.ticks + ' metrics ticks, ' + imported.taskEvents + ' task events');
+        traceTable.display();
+    };
+
+    var importRecord = function (record, imported) {
+        if (record.type === 'session') {
+            imported.session = record;
+        } else if (record.type === 'metrics') {
+            imported.ticks++;
+        } else if (record.type === 'task') {
+            imported.taskEvents++;
+        } else if (record.type === 'tree' && record.tree) {
+            imported.trees++;
+            traceTable.addTraceData([record.tree], record.tree.duration);
+        } else if (record.type === 'tree' && record.expired) {
+            imported.expired++;
+        }
     };
 
     var httpApplyUrlFilter = function (e) {
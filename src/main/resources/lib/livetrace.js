@@ -1,6 +1,6 @@
-exports.startSampling = function (onSample) {
+exports.startSampling = function (sessionId, onSample) {
     var bean = __.newBean('com.enonic.app.livetrace.SamplingHandler');
-    return bean.startSampling(onSample);
+    return bean.startSampling(sessionId, onSample);
 };
 
 exports.stopSampling = function (id) {
@@ -8,6 +8,16 @@ exports.stopSampling = function (id) {
     bean.stopSampling(id);
 };
 
+exports.releaseSampling = function (sessionId) {
+    var bean = __.newBean('com.enonic.app.livetrace.SamplingHandler');
+    bean.releaseSampling(sessionId);
+};
+
+exports.getTree = function (id, traceId) {
+    var bean = __.newBean('com.enonic.app.livetrace.SamplingHandler');
+    return __.toNativeObject(bean.getTree(id, traceId));
+};
+
 exports.getRequestsPerSecond = function () {
     var bean = __.newBean('com.enonic.app.livetrace.SamplingHandler');
     return __.toNativeObject(bean.getRequestsPerSecond());
@@ -22,3 +32,38 @@ exports.getRequestsCount = function () {
     var bean = __.newBean('com.enonic.app.livetrace.SamplingHandler');
     return __.toNativeObject(bean.getSamplingRequestCount());
 };
+
+exports.subscribeRequestRate = function (sessionId, onData) {
+    var bean = __.newBean('com.enonic.app.livetrace.SamplingHandler');
+    bean.subscribeRequestRate(sessionId, onData);
+};
+
+exports.unsubscribeRequestRate = function (sessionId) {
+    var bean = __.newBean('com.enonic.app.livetrace.SamplingHandler');
+    bean.unsubscribeRequestRate(sessionId);
+};
+
+exports.getQueryShapes = function (id, limit) {
+    var bean = __.newBean('com.enonic.app.livetrace.SamplingHandler');
+    return __.toNativeObject(bean.getQueryShapes(id, limit || 50));
+};
+
+exports.getRepeats = function (id, limit) {
+    var bean = __.newBean('com.enonic.app.livetrace.SamplingHandler');
+    return __.toNativeObject(bean.getRepeats(id, limit || 50));
+};
+
+exports.getFlameTree = function (id) {
+    var bean = __.newBean('com.enonic.app.livetrace.SamplingHandler');
+    return __.toNativeObject(bean.getFlameTree(id));
+};
+
+exports.getLocks = function (id, limit) {
+    var bean = __.newBean('com.enonic.app.livetrace.SamplingHandler');
+    return __.toNativeObject(bean.getLocks(id, limit || 50));
+};
+
+exports.exportSession = function (id) {
+    var bean = __.newBean('com.enonic.app.livetrace.SamplingHandler');
+    return bean.exportSession(id);
+};
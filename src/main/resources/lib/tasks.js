@@ -0,0 +1,9 @@
+var bean = __.newBean('com.enonic.app.livetrace.tasks.TasksHandler');
+
+exports.subscribe = function (sessionId, onTaskData) {
+    bean.subscribe(sessionId, onTaskData);
+};
+
+exports.unsubscribe = function (sessionId) {
+    bean.unsubscribe(sessionId);
+};
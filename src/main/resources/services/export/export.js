@@ -0,0 +1,21 @@
+var traceLib = require('/lib/livetrace');
+
+var handleGet = function (req) {
+    var samplingId = req.params.samplingId;
+    var session = samplingId && traceLib.exportSession(samplingId);
+    if (!session) {
+        return {
+            status: 404
+        };
+    }
+
+    return {
+        contentType: 'application/octet-stream',
+        headers: {
+            'Content-Disposition': 'attachment; filename="livetrace-' + samplingId + '.ltz"'
+        },
+        body: session
+    };
+};
+
+exports.get = handleGet;
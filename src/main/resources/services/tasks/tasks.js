@@ -1,6 +1,5 @@
 var webSocketLib = require('/lib/xp/websocket');
-var taskLib = require('/lib/xp/task');
-var eventLib = require('/lib/xp/event');
+var tasksLib = require('/lib/tasks');
 
 exports.get = function (req) {
     if (!req.webSocket) {
@@ -21,27 +20,13 @@ exports.webSocketEvent = function (event) {
 
     switch (event.type) {
     case 'open':
-        var tasks = taskLib.list();
-        webSocketLib.send(sessionId, JSON.stringify({'tasks': tasks}));
-
-        eventLib.listener({
-            type: 'task.*',
-            localOnly: false,
-            callback: function (event) {
-                var type = event.type.split('.')[1];
-                var msg, task;
-                if (type === 'removed') {
-                    msg = {event: type, taskId: event.data.id};
-                } else {
-                    task = taskLib.get(event.data.id);
-                    msg = {event: type, task: task};
-                }
-                webSocketLib.send(sessionId, JSON.stringify(msg));
-            }
+        tasksLib.subscribe(sessionId, function (msg) {
+            webSocketLib.send(sessionId, msg);
         });
         break;
 
     case 'close':
+        tasksLib.unsubscribe(sessionId);
         break;
     }
-};
\ No newline at end of file
+};
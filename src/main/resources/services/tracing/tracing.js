@@ -21,29 +21,52 @@ var handleWebSocket = function (event) {
 
     switch (event.type) {
     case 'open':
-        samplingId = traceLib.startSampling(function (value) {
-            value = __.toNativeObject(value);
-            if (value === 'stop') {
-                webSocketLib.send(sessionId, JSON.stringify({action: 'stop'}));
-            } else {
-                webSocketLib.send(sessionId, JSON.stringify(value));
-            }
-        });
-        log.info('Started sampling ID: ' + samplingId);
-
-        webSocketLib.send(sessionId, JSON.stringify({samplingId: samplingId}));
-
         break;
 
     case 'message':
         var msg = JSON.parse(event.message);
-        if (msg.action === 'stop') {
+        if (msg.action === 'start') {
+            samplingId = traceLib.startSampling(sessionId, function (value) {
+                value = __.toNativeObject(value);
+                if (value === 'stop') {
+                    webSocketLib.send(sessionId, JSON.stringify({action: 'stop'}));
+                } else {
+                    webSocketLib.send(sessionId, JSON.stringify(value));
+                }
+            });
+            log.info('Started sampling ID: ' + samplingId);
+
+            webSocketLib.send(sessionId, JSON.stringify({samplingId: samplingId}));
+        } else if (msg.action === 'stop') {
             traceLib.stopSampling(msg.samplingId);
             log.info('Stopped sampling ID: ' + msg.samplingId);
+        } else if (msg.action === 'tree') {
+            webSocketLib.send(sessionId, JSON.stringify(traceLib.getTree(msg.samplingId, msg.traceId)));
+        } else if (msg.action === 'queryShapes') {
+            var queryShapes = traceLib.getQueryShapes(msg.samplingId);
+            if (queryShapes) {
+                webSocketLib.send(sessionId, JSON.stringify(queryShapes));
+            }
+        } else if (msg.action === 'repeats') {
+            var repeats = traceLib.getRepeats(msg.samplingId);
+            if (repeats) {
+                webSocketLib.send(sessionId, JSON.stringify(repeats));
+            }
+        } else if (msg.action === 'flame') {
+            var flame = traceLib.getFlameTree(msg.samplingId);
+            if (flame) {
+                webSocketLib.send(sessionId, JSON.stringify(flame));
+            }
+        } else if (msg.action === 'locks') {
+            var locks = traceLib.getLocks(msg.samplingId);
+            if (locks) {
+                webSocketLib.send(sessionId, JSON.stringify(locks));
+            }
         }
         break;
 
     case 'close':
+        traceLib.releaseSampling(sessionId);
         break;
     }
 };